@@ -0,0 +1,77 @@
+package com.learnsphere.bench;
+
+import com.learnsphere.app.SyntheticCatalog;
+import com.learnsphere.entity.Course;
+import com.learnsphere.service.LearnSphereService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths of {@link LearnSphereService} against an embedded H2 database (bench profile).
+ * The catalog is seeded once per fork; its size is a JMH parameter ({@code -p catalogSize=10000}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Dlearnsphere.profile=bench", "-Dlearnsphere.review_search.file=none", "-Xmx2g" })
+public class ServiceBenchmarks {
+
+    @Param({ "1000" })
+    public int catalogSize;
+
+    private LearnSphereService service;
+    private SyntheticCatalog catalog;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        service = new LearnSphereService();
+        catalog = new SyntheticCatalog(catalogSize, catalogSize * 2, 5).seed(service);
+        service.rebuildSearchIndex();
+        service.rebuildRatingAggregates();
+    }
+
+    private int anyUser() { return ThreadLocalRandom.current().nextInt(catalog.users()); }
+    private int anyCourse() { return ThreadLocalRandom.current().nextInt(catalog.courses()); }
+
+    @Benchmark
+    public List<Course> searchCourses() {
+        return service.searchCourses(SyntheticCatalog.keyword(ThreadLocalRandom.current().nextInt()));
+    }
+
+    /** Mostly hits existing enrollments once warmed up, like repeated clicks on "enroll". */
+    @Benchmark
+    public Object enrollUserInCourse() {
+        return service.enrollUserInCourse(catalog.userId(anyUser()), catalog.courseId(anyCourse()));
+    }
+
+    @Benchmark
+    public Object addReview() {
+        int u = anyUser();
+        int k = ThreadLocalRandom.current().nextInt(catalog.enrollmentsPerUser());
+        return service.addReview(catalog.userId(u), catalog.courseId(catalog.enrolledCourse(u, k)),
+                ThreadLocalRandom.current().nextInt(11), "benchmark review");
+    }
+
+    @Benchmark
+    public Double getAverageRatingForCourse() {
+        return service.getAverageRatingForCourse(catalog.courseId(anyCourse()));
+    }
+
+    @Benchmark
+    public List<Course> listCoursesByUser() {
+        return service.listCoursesByUser(catalog.userId(anyUser()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void adminUsersWithEnrollments(Blackhole bh) {
+        service.streamUsersWithEnrollments((u, cs) -> bh.consume(cs.size()));
+    }
+}
@@ -1,8 +1,13 @@
 package com.learnsphere.app;
 
+import com.learnsphere.dto.LeaderboardMetric;
+import com.learnsphere.dto.RankedCourse;
+import com.learnsphere.dto.Recommendation;
+import com.learnsphere.entity.Category;
 import com.learnsphere.entity.Course;
 import com.learnsphere.entity.User;
 import com.learnsphere.service.LearnSphereService;
+import com.learnsphere.util.StartupTimer;
 
 import java.util.*;
 
@@ -12,7 +17,14 @@ public class App {
 
     public static void main(String[] args) {
         System.out.println("=== LearnSphere Console (Hibernate) ===");
-        seedIfEmpty(); // optional demo data
+        StartupTimer.time("seed", App::seedIfEmpty); // optional demo data
+        StartupTimer.time("searchIndex", service::rebuildSearchIndex);
+        StartupTimer.time("ratings", service::rebuildRatingAggregates);
+        StartupTimer.time("enrollments", service::rebuildEnrollmentIndex);
+        StartupTimer.time("reviewSearch", service::loadReviewSearch);
+        StartupTimer.time("recommendations", service::rebuildRecommendations);
+        StartupTimer.time("leaderboards", service::rebuildLeaderboards);
+        System.out.println(StartupTimer.report());
 
         while (true) {
             menu();
@@ -28,6 +40,7 @@ public class App {
                     case "7": addReview(); break;
                     case "8": avgRating(); break;
                     case "9": adminList(); break;
+                    case "10": topCourses(); break;
                     case "0": System.out.println("Bye!"); return;
                     default: System.out.println("Invalid option.");
                 }
@@ -49,6 +62,7 @@ public class App {
         System.out.println("7) Add/Update Review (0..10)");
         System.out.println("8) Show Average Rating for Course");
         System.out.println("9) Admin: Users with Enrollments");
+        System.out.println("10) Top Courses (most enrolled / top rated / trending)");
         System.out.println("0) Exit");
         System.out.print("> ");
     }
@@ -102,6 +116,14 @@ public class App {
             System.out.println("Enrolled courses:");
             cs.forEach(c -> System.out.println(" - " + c.getId() + ": " + c.getName()
                     + " (" + c.getInstructor() + ", " + c.getDurationHours() + "h)"));
+            List<Recommendation> recs = service.recommendForUser(u.getId(), 5, true);
+            if (!recs.isEmpty()) {
+                System.out.println("Users who took these also took:");
+                for (Recommendation r : recs) {
+                    Course c = service.getCourse(r.getCourseId());
+                    if (c != null) System.out.println(" * " + c.getId() + ": " + c.getName() + " (" + r.getCoEnrollments() + " shared learners)");
+                }
+            }
         }
     }
 
@@ -110,8 +132,11 @@ public class App {
         String key = in.nextLine();
         List<Course> cs = service.searchCourses(key);
         if (cs.isEmpty()) { System.out.println("No courses found."); return; }
+        List<Long> ids = new ArrayList<>();
+        for (Course c : cs) ids.add(c.getId());
+        Map<Long, Double> avgs = service.getAverageRatings(ids);
         for (Course c : cs) {
-            Double avg = service.getAverageRatingForCourse(c.getId());
+            Double avg = avgs.get(c.getId());
             String avgTxt = (avg == null) ? "No ratings yet" : String.format(Locale.US, "%.2f / 10", avg);
             System.out.println(c.getId() + " | " + c.getName() + " | " + c.getInstructor()
                     + " | " + c.getDurationHours() + "h | Avg: " + avgTxt);
@@ -139,19 +164,40 @@ public class App {
         System.out.println("Average rating: " + (avg == null ? "No ratings yet" : String.format(Locale.US, "%.2f / 10", avg)));
     }
 
+    private static void topCourses() {
+        System.out.print("Category (empty for all): ");
+        String name = in.nextLine().trim();
+        Long categoryId = null;
+        if (!name.isEmpty()) {
+            Category cat = service.findCategoryByName(name);
+            if (cat == null) { System.out.println("Category not found."); return; }
+            categoryId = cat.getId();
+        }
+        for (LeaderboardMetric m : LeaderboardMetric.values()) {
+            System.out.println(m + ":");
+            List<RankedCourse> top = service.topCourses(m, categoryId, 5);
+            if (top.isEmpty()) System.out.println("  (none)");
+            for (RankedCourse r : top) {
+                Course c = service.getCourse(r.getCourseId());
+                if (c != null) System.out.println("  " + c.getId() + ": " + c.getName() + String.format(Locale.US, " (%.2f)", r.getScore()));
+            }
+        }
+    }
+
     private static void adminList() {
-        Map<User, List<Course>> map = service.adminUsersWithEnrollments();
-        if (map.isEmpty()) { System.out.println("No users."); return; }
-        map.forEach((u, cs) -> {
+        boolean[] any = { false };
+        service.streamUsersWithEnrollments((u, cs) -> {
+            any[0] = true;
             System.out.println(u.getName() + " <" + u.getEmail() + ">");
             if (cs.isEmpty()) System.out.println("  (no enrollments)");
             else cs.forEach(c -> System.out.println("  - " + c.getId() + ": " + c.getName()));
         });
+        if (!any[0]) System.out.println("No users.");
     }
 
     private static void seedIfEmpty() {
         // Add a couple of categories/courses/users for quick testing if DB is empty
-        if (service.listCourses().isEmpty()) {
+        if (!service.hasCourses()) {
             service.createCategory("Programming");
             service.createCategory("Design");
             service.createCategory("Business");
@@ -159,7 +205,7 @@ public class App {
             service.addCourse("Java Fundamentals", "Alice Johnson", 24, Arrays.asList("Programming"));
             service.addCourse("Creative Marketing", "Bob Lee", 18, Arrays.asList("Business","Design"));
         }
-        if (service.listUsers().isEmpty()) {
+        if (!service.hasUsers()) {
             service.registerUser("Test User", "test@learnsphere.io");
         }
     }
@@ -0,0 +1,213 @@
+package com.learnsphere.app;
+
+import com.learnsphere.service.LearnSphereService;
+import com.learnsphere.util.Config;
+import com.learnsphere.util.HibernateUtil;
+import com.learnsphere.util.Histogram;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless soak test: drives {@link LearnSphereService} on an embedded H2 database (the bench profile unless
+ * {@code learnsphere.profile} says otherwise) with a mixed, open-loop workload.
+ * <p>
+ * Requests arrive as a Poisson process at the target rate, whether or not earlier ones have finished, and each
+ * latency is measured from its scheduled arrival, so queueing behind a saturated service shows up in the tail
+ * instead of silently lowering the offered load. Courses are picked with Zipfian popularity, users uniformly.
+ * Several comma-separated rates run as consecutive steps; the step where achieved throughput falls behind the
+ * target and p99 climbs is the saturation point.
+ * <p>
+ * Usage: {@code LoadGenerator [rate[,rate...]] [seconds per step]}. Other settings ({@code learnsphere.load.*}):
+ * {@code mix} (default {@code search=40,enroll=15,review=15,list=25,admin=5}), {@code threads} (64),
+ * {@code warmup_seconds} (5), {@code zipf} exponent (1.0), {@code courses} (1000), {@code users} (5000),
+ * {@code enrollments_per_user} (5), {@code max_outstanding} (100000; arrivals beyond it are dropped and counted).
+ */
+public final class LoadGenerator {
+    enum Op { SEARCH, ENROLL, REVIEW, LIST, ADMIN }
+
+    private static final class OpStats {
+        final Histogram latency = new Histogram(); // ns from scheduled arrival to completion
+        final LongAdder errors = new LongAdder();
+        volatile String firstError;
+
+        void reset() { latency.reset(); errors.reset(); firstError = null; }
+    }
+
+    private final LearnSphereService service;
+    private final SyntheticCatalog catalog;
+    private final Op[] ops;
+    private final double[] opCdf;
+    private final double[] courseCdf;
+    private final Map<Op, OpStats> stats = new EnumMap<>(Op.class);
+    private final ExecutorService workers;
+    private final int maxOutstanding;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+
+    LoadGenerator(LearnSphereService service, SyntheticCatalog catalog, Map<Op, Integer> mix, double zipf,
+                  int threads, int maxOutstanding) {
+        this.service = service;
+        this.catalog = catalog;
+        this.maxOutstanding = maxOutstanding;
+        this.ops = mix.keySet().toArray(new Op[0]);
+        this.opCdf = cdf(mix.values().stream().mapToDouble(Integer::doubleValue).toArray());
+        double[] weights = new double[catalog.courses()];
+        for (int i = 0; i < weights.length; i++) weights[i] = 1.0 / Math.pow(i + 1, zipf);
+        this.courseCdf = cdf(weights);
+        for (Op op : Op.values()) stats.put(op, new OpStats());
+        AtomicInteger n = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "learnsphere-load-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /* ======== Workload ======== */
+    private void execute(Op op, ThreadLocalRandom rnd) {
+        int u = rnd.nextInt(catalog.users());
+        switch (op) {
+            case SEARCH:
+                service.searchCourses(SyntheticCatalog.keyword(zipfCourse(rnd)));
+                break;
+            case ENROLL:
+                service.enrollUserInCourse(catalog.userId(u), catalog.courseId(zipfCourse(rnd)));
+                break;
+            case REVIEW: // on one of the user's seeded enrollments, so the review is always accepted
+                int k = rnd.nextInt(Math.max(1, catalog.enrollmentsPerUser()));
+                service.addReview(catalog.userId(u), catalog.courseId(catalog.enrolledCourse(u, k)), rnd.nextInt(11), "load test");
+                break;
+            case LIST:
+                service.listCoursesByUser(catalog.userId(u));
+                break;
+            case ADMIN:
+                service.streamUsersWithEnrollments((user, courses) -> { });
+                break;
+        }
+    }
+
+    private int zipfCourse(ThreadLocalRandom rnd) { return pick(courseCdf, rnd.nextDouble()); }
+
+    private static double[] cdf(double[] weights) {
+        double[] cdf = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) cdf[i] = sum += weights[i];
+        for (int i = 0; i < cdf.length; i++) cdf[i] /= sum;
+        return cdf;
+    }
+
+    private static int pick(double[] cdf, double x) {
+        int i = Arrays.binarySearch(cdf, x);
+        return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+    }
+
+    /* ======== Open-loop driver ======== */
+    /** Offers {@code rate} requests per second for {@code seconds}; returns the nanos the arrivals actually took. */
+    private long drive(double rate, double seconds) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long start = System.nanoTime(), end = start + (long) (seconds * 1e9);
+        long next = start;
+        while (true) {
+            next += (long) (-Math.log(1 - rnd.nextDouble()) / rate * 1e9); // exponential inter-arrival gap
+            if (next >= end) break;
+            long wait = next - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            Op op = ops[pick(opCdf, rnd.nextDouble())];
+            if (outstanding.incrementAndGet() > maxOutstanding) {
+                outstanding.decrementAndGet();
+                dropped.increment();
+                continue;
+            }
+            long scheduled = next;
+            workers.execute(() -> {
+                OpStats st = stats.get(op);
+                try {
+                    execute(op, ThreadLocalRandom.current());
+                } catch (RuntimeException e) {
+                    st.errors.increment();
+                    if (st.firstError == null) st.firstError = e.getClass().getSimpleName() + ": " + e.getMessage();
+                } finally {
+                    st.latency.record(System.nanoTime() - scheduled);
+                    outstanding.decrementAndGet();
+                }
+            });
+        }
+        while (outstanding.get() > 0) LockSupport.parkNanos(1_000_000); // let the step drain before reporting
+        return System.nanoTime() - start;
+    }
+
+    void runStep(double rate, double seconds, double warmupSeconds) {
+        if (warmupSeconds > 0) drive(rate, warmupSeconds);
+        for (OpStats st : stats.values()) st.reset();
+        dropped.reset();
+        long nanos = drive(rate, seconds);
+        report(rate, nanos);
+    }
+
+    private void report(double rate, long nanos) {
+        double secs = nanos / 1e9;
+        long total = 0, errors = 0;
+        System.out.printf(Locale.ROOT, "%n== target %.0f req/s ==%n%-8s %9s %10s %9s %9s %9s %9s %7s%n",
+                rate, "op", "count", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors");
+        for (Map.Entry<Op, OpStats> e : stats.entrySet()) {
+            Histogram h = e.getValue().latency;
+            long n = h.count();
+            if (n == 0) continue;
+            total += n;
+            errors += e.getValue().errors.sum();
+            System.out.printf(Locale.ROOT, "%-8s %9d %10.1f %9.2f %9.2f %9.2f %9.2f %7d%n",
+                    e.getKey().name().toLowerCase(Locale.ROOT), n, n / secs, h.percentile(0.5) / 1e6,
+                    h.percentile(0.99) / 1e6, h.percentile(0.999) / 1e6, h.max() / 1e6, e.getValue().errors.sum());
+        }
+        System.out.printf(Locale.ROOT, "%-8s %9d %10.1f   errors=%d dropped=%d%n", "total", total, total / secs, errors, dropped.sum());
+        for (Map.Entry<Op, OpStats> e : stats.entrySet()) {
+            if (e.getValue().firstError != null) System.out.println("  first " + e.getKey() + " error: " + e.getValue().firstError);
+        }
+    }
+
+    static Map<Op, Integer> parseMix(String spec) {
+        Map<Op, Integer> mix = new EnumMap<>(Op.class);
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2) throw new IllegalArgumentException("Bad mix entry (want op=weight): " + part);
+            int w = Integer.parseInt(kv[1].trim());
+            if (w > 0) mix.put(Op.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), w);
+        }
+        if (mix.isEmpty()) throw new IllegalArgumentException("Empty operation mix: " + spec);
+        return mix;
+    }
+
+    public static void main(String[] args) {
+        if (Config.get("learnsphere.profile") == null) {
+            System.setProperty("learnsphere.profile", "bench"); // embedded H2 unless told otherwise
+        }
+        if (Config.get("learnsphere.review_search.file") == null) {
+            System.setProperty("learnsphere.review_search.file", "none"); // a throwaway database needs no stored index
+        }
+        String rates = args.length > 0 ? args[0] : Config.get("learnsphere.load.rate", "200,400,800,1600");
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : Config.getInt("learnsphere.load.duration_seconds", 30);
+        Map<Op, Integer> mix = parseMix(Config.get("learnsphere.load.mix", "search=40,enroll=15,review=15,list=25,admin=5"));
+
+        LearnSphereService service = new LearnSphereService();
+        long t0 = System.nanoTime();
+        SyntheticCatalog catalog = new SyntheticCatalog(Config.getInt("learnsphere.load.courses", 1000),
+                Config.getInt("learnsphere.load.users", 5000), Config.getInt("learnsphere.load.enrollments_per_user", 5)).seed(service);
+        service.rebuildSearchIndex();
+        service.rebuildRatingAggregates();
+        service.rebuildEnrollmentIndex();
+        System.out.printf(Locale.ROOT, "Seeded %d courses, %d users in %.1f s; mix %s, pool %d connections%n",
+                catalog.courses(), catalog.users(), (System.nanoTime() - t0) / 1e9, mix, HibernateUtil.getPoolSize());
+
+        LoadGenerator load = new LoadGenerator(service, catalog, mix,
+                Double.parseDouble(Config.get("learnsphere.load.zipf", "1.0")),
+                Config.getInt("learnsphere.load.threads", 64), Config.getInt("learnsphere.load.max_outstanding", 100_000));
+        double warmup = Config.getInt("learnsphere.load.warmup_seconds", 5);
+        for (String r : rates.split(",")) load.runStep(Double.parseDouble(r.trim()), seconds, warmup);
+        load.workers.shutdownNow();
+        HibernateUtil.getSessionFactory().close();
+    }
+}
@@ -0,0 +1,109 @@
+package com.learnsphere.app;
+
+import com.learnsphere.entity.Course;
+import com.learnsphere.entity.User;
+import com.learnsphere.service.CatalogImporter;
+import com.learnsphere.service.LearnSphereService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Deterministic synthetic catalog for benchmarks and load tests: {@code courses} courses over a fixed set of
+ * categories, {@code users} users each enrolled in {@code enrollmentsPerUser} courses, and a review on the first
+ * enrollment of every other user. Seeded through {@link CatalogImporter}, so it is fast even for large sizes.
+ */
+public final class SyntheticCatalog {
+    static final String[] CATEGORIES = { "Programming", "Design", "Business", "Physics", "Chemistry",
+            "Marketing", "Data Science", "Music", "Languages", "Mathematics" };
+    static final String[] WORDS = { "Java", "Python", "Fundamentals", "Advanced", "Creative", "Marketing",
+            "Physics", "Automation", "Design", "Data", "Cloud", "Security", "Algebra", "Guitar", "Spanish",
+            "Finance", "Statistics", "Web", "Mobile", "Chemistry" };
+
+    private final int courses, users, enrollmentsPerUser;
+    private long[] courseIds, userIds;
+
+    public SyntheticCatalog(int courses, int users, int enrollmentsPerUser) {
+        this.courses = courses;
+        this.users = users;
+        this.enrollmentsPerUser = Math.min(enrollmentsPerUser, courses);
+    }
+
+    public int courses() { return courses; }
+    public int users() { return users; }
+    public int enrollmentsPerUser() { return enrollmentsPerUser; }
+
+    public static String courseName(int i) {
+        return WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length] + " " + i;
+    }
+
+    public static String email(int u) { return "user" + u + "@bench.learnsphere.io"; }
+
+    /** Index of the k-th course user {@code u} is enrolled in; distinct for k < enrollmentsPerUser. */
+    public int enrolledCourse(int u, int k) {
+        return (int) ((u * 7919L + k * 104_729L) % courses);
+    }
+
+    /** A search term that matches part of the catalog. */
+    public static String keyword(int i) { return WORDS[Math.floorMod(i, WORDS.length)].toLowerCase(Locale.ROOT); }
+
+    public long courseId(int i) { return courseIds[i]; }
+    public long userId(int u) { return userIds[u]; }
+
+    /** Imports the catalog into an empty database and resolves the generated ids. */
+    public SyntheticCatalog seed(LearnSphereService service) {
+        CatalogImporter importer = new CatalogImporter(service);
+        try {
+            importer.importFile(CatalogImporter.Kind.COURSES, write("courses", w -> {
+                w.write("name,instructor,durationHours,categories\n");
+                for (int i = 0; i < courses; i++) {
+                    w.write(courseName(i) + ",Instructor " + (i % 97) + "," + (1 + i % 40) + ","
+                            + CATEGORIES[i % CATEGORIES.length] + "|" + CATEGORIES[(i / 3) % CATEGORIES.length] + "\n");
+                }
+            }));
+            importer.importFile(CatalogImporter.Kind.USERS, write("users", w -> {
+                w.write("name,email\n");
+                for (int u = 0; u < users; u++) w.write("User " + u + "," + email(u) + "\n");
+            }));
+            importer.importFile(CatalogImporter.Kind.ENROLLMENTS, write("enrollments", w -> {
+                w.write("email,course\n");
+                for (int u = 0; u < users; u++)
+                    for (int k = 0; k < enrollmentsPerUser; k++) w.write(email(u) + "," + courseName(enrolledCourse(u, k)) + "\n");
+            }));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Map<String, Long> byName = new HashMap<>();
+        for (Course c : service.onPrimary(service::listCourses)) byName.put(c.getName(), c.getId()); // just imported
+        courseIds = new long[courses];
+        for (int i = 0; i < courses; i++) courseIds[i] = byName.get(courseName(i));
+        Map<String, Long> byEmail = new HashMap<>();
+        for (User u : service.onPrimary(service::listUsers)) byEmail.put(u.getEmail(), u.getId());
+        userIds = new long[users];
+        for (int u = 0; u < users; u++) userIds[u] = byEmail.get(email(u));
+
+        if (enrollmentsPerUser > 0) {
+            for (int u = 0; u < users; u += 2) {
+                service.addReview(userIds[u], courseIds[enrolledCourse(u, 0)], (u * 31) % 11, "Review by user " + u);
+            }
+        }
+        return this;
+    }
+
+    private interface CsvBody { void write(Writer w) throws IOException; }
+
+    private static Path write(String name, CsvBody body) throws IOException {
+        Path file = Files.createTempFile("learnsphere-" + name, ".csv");
+        file.toFile().deleteOnExit();
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            body.write(w);
+        }
+        return file;
+    }
+}
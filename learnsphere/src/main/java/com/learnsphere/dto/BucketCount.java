@@ -0,0 +1,16 @@
+package com.learnsphere.dto;
+
+import java.time.LocalDate;
+
+/** A count for the {@link TimeBucket} starting on {@code start}. */
+public class BucketCount {
+    private final LocalDate start;
+    private final long count;
+
+    public BucketCount(LocalDate start, long count) { this.start = start; this.count = count; }
+
+    public LocalDate getStart() { return start; }
+    public long getCount() { return count; }
+
+    @Override public String toString() { return "BucketCount{start=" + start + ", count=" + count + "}"; }
+}
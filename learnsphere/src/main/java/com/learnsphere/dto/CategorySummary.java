@@ -0,0 +1,14 @@
+package com.learnsphere.dto;
+
+/** Listing projection of a category. */
+public class CategorySummary {
+    private final Long id;
+    private final String name;
+
+    public CategorySummary(Long id, String name) { this.id = id; this.name = name; }
+
+    public Long getId() { return id; }
+    public String getName() { return name; }
+
+    @Override public String toString() { return "CategorySummary{id=" + id + ", name='" + name + "'}"; }
+}
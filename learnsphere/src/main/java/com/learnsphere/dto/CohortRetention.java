@@ -0,0 +1,30 @@
+package com.learnsphere.dto;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * One weekly cohort of a category: the users whose first enrollment in the category fell in the week starting
+ * {@code start}, and how many of them enrolled in a course of that category again {@code k} weeks later
+ * ({@code active[0]} is the cohort size).
+ */
+public class CohortRetention {
+    private final LocalDate start;
+    private final long size;
+    private final long[] active;
+
+    public CohortRetention(LocalDate start, long size, long[] active) { this.start = start; this.size = size; this.active = active; }
+
+    public LocalDate getStart() { return start; }
+    public long getSize() { return size; }
+    public long[] getActive() { return active.clone(); }
+
+    /** Share of the cohort active {@code week} weeks after it started; 0 beyond the reported range. */
+    public double getRetention(int week) {
+        return size == 0 || week >= active.length ? 0 : (double) active[week] / size;
+    }
+
+    @Override public String toString() {
+        return "CohortRetention{start=" + start + ", size=" + size + ", active=" + Arrays.toString(active) + "}";
+    }
+}
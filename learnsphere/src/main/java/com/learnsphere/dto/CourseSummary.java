@@ -0,0 +1,23 @@
+package com.learnsphere.dto;
+
+/** Listing projection of a course; never touches the categories or enrollments collections. */
+public class CourseSummary {
+    private final Long id;
+    private final String name;
+    private final String instructor;
+    private final int durationHours;
+
+    public CourseSummary(Long id, String name, String instructor, int durationHours) {
+        this.id = id; this.name = name; this.instructor = instructor; this.durationHours = durationHours;
+    }
+
+    public Long getId() { return id; }
+    public String getName() { return name; }
+    public String getInstructor() { return instructor; }
+    public int getDurationHours() { return durationHours; }
+
+    @Override public String toString() {
+        return "CourseSummary{id=" + id + ", name='" + name + "', instructor='" + instructor +
+                "', durationHours=" + durationHours + "}";
+    }
+}
@@ -0,0 +1,8 @@
+package com.learnsphere.dto;
+
+/**
+ * What a course leaderboard ranks by: {@link #ENROLLMENTS} total enrollments, {@link #RATING} Bayesian-adjusted
+ * average review rating (courses without reviews are not ranked), {@link #TRENDING} recent enrollments with
+ * exponential time decay.
+ */
+public enum LeaderboardMetric { ENROLLMENTS, RATING, TRENDING }
@@ -0,0 +1,20 @@
+package com.learnsphere.dto;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated listing. {@link #getNextCursor()} is an opaque token to pass back for the
+ * following page, or null on the last page.
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final String nextCursor;
+
+    public Page(List<T> items, String nextCursor) { this.items = items; this.nextCursor = nextCursor; }
+
+    public List<T> getItems() { return items; }
+    public String getNextCursor() { return nextCursor; }
+    public boolean hasNext() { return nextCursor != null; }
+
+    @Override public String toString() { return "Page{items=" + items.size() + ", nextCursor=" + nextCursor + "}"; }
+}
@@ -0,0 +1,14 @@
+package com.learnsphere.dto;
+
+/** One leaderboard row: the course and its score under the requested {@link LeaderboardMetric}. */
+public class RankedCourse {
+    private final Long courseId;
+    private final double score;
+
+    public RankedCourse(Long courseId, double score) { this.courseId = courseId; this.score = score; }
+
+    public Long getCourseId() { return courseId; }
+    public double getScore() { return score; }
+
+    @Override public String toString() { return "RankedCourse{courseId=" + courseId + ", score=" + score + "}"; }
+}
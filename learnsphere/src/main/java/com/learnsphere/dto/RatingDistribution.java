@@ -0,0 +1,31 @@
+package com.learnsphere.dto;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/** Number of reviews per rating 0..10 (index = rating) among reviews created in the bucket starting on {@code start}. */
+public class RatingDistribution {
+    private final LocalDate start;
+    private final long[] counts;
+
+    public RatingDistribution(LocalDate start, long[] counts) { this.start = start; this.counts = counts; }
+
+    public LocalDate getStart() { return start; }
+    public long[] getCounts() { return counts.clone(); }
+    public long getCount(int rating) { return counts[rating]; }
+
+    public long getTotal() {
+        long n = 0;
+        for (long c : counts) n += c;
+        return n;
+    }
+
+    /** Mean rating in the bucket; null if it holds no reviews. */
+    public Double getAverage() {
+        long n = 0, sum = 0;
+        for (int r = 0; r < counts.length; r++) { n += counts[r]; sum += r * counts[r]; }
+        return n == 0 ? null : (double) sum / n;
+    }
+
+    @Override public String toString() { return "RatingDistribution{start=" + start + ", counts=" + Arrays.toString(counts) + "}"; }
+}
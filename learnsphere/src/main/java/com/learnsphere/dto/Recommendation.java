@@ -0,0 +1,23 @@
+package com.learnsphere.dto;
+
+/**
+ * A recommended course: {@code coEnrollments} is how many users took it together with the seed course(s),
+ * {@code score} is that count, weighted by rating when requested. Higher is better.
+ */
+public class Recommendation {
+    private final Long courseId;
+    private final int coEnrollments;
+    private final double score;
+
+    public Recommendation(Long courseId, int coEnrollments, double score) {
+        this.courseId = courseId; this.coEnrollments = coEnrollments; this.score = score;
+    }
+
+    public Long getCourseId() { return courseId; }
+    public int getCoEnrollments() { return coEnrollments; }
+    public double getScore() { return score; }
+
+    @Override public String toString() {
+        return "Recommendation{courseId=" + courseId + ", coEnrollments=" + coEnrollments + ", score=" + score + "}";
+    }
+}
@@ -0,0 +1,25 @@
+package com.learnsphere.dto;
+
+/** One review search result: the review, who wrote it for which course, its rating and BM25 score. Higher is better. */
+public class ReviewHit {
+    private final Long reviewId;
+    private final Long userId;
+    private final Long courseId;
+    private final int rating;
+    private final double score;
+
+    public ReviewHit(Long reviewId, Long userId, Long courseId, int rating, double score) {
+        this.reviewId = reviewId; this.userId = userId; this.courseId = courseId; this.rating = rating; this.score = score;
+    }
+
+    public Long getReviewId() { return reviewId; }
+    public Long getUserId() { return userId; }
+    public Long getCourseId() { return courseId; }
+    public int getRating() { return rating; }
+    public double getScore() { return score; }
+
+    @Override public String toString() {
+        return "ReviewHit{reviewId=" + reviewId + ", userId=" + userId + ", courseId=" + courseId
+                + ", rating=" + rating + ", score=" + score + "}";
+    }
+}
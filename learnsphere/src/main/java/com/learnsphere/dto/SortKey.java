@@ -0,0 +1,7 @@
+package com.learnsphere.dto;
+
+/**
+ * Sort order for paginated listings; ties are broken by id. Courses and categories support {@link #ID} and
+ * {@link #NAME}; users support {@link #ID} and {@link #EMAIL}. Every non-id key is backed by an index.
+ */
+public enum SortKey { ID, NAME, EMAIL }
@@ -0,0 +1,4 @@
+package com.learnsphere.dto;
+
+/** Width of an analytics bucket: a calendar {@link #DAY} or an ISO {@link #WEEK} (Monday to Sunday). */
+public enum TimeBucket { DAY, WEEK }
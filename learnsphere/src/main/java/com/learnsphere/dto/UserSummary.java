@@ -0,0 +1,18 @@
+package com.learnsphere.dto;
+
+/** Listing projection of a user; never touches the enrollments or reviews collections. */
+public class UserSummary {
+    private final Long id;
+    private final String name;
+    private final String email;
+
+    public UserSummary(Long id, String name, String email) {
+        this.id = id; this.name = name; this.email = email;
+    }
+
+    public Long getId() { return id; }
+    public String getName() { return name; }
+    public String getEmail() { return email; }
+
+    @Override public String toString() { return "UserSummary{id=" + id + ", name='" + name + "', email='" + email + "'}"; }
+}
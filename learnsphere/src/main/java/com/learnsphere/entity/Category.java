@@ -1,29 +1,47 @@
 package com.learnsphere.entity;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+
 import javax.persistence.*;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 
 @Entity
-@Table(name = "categories", uniqueConstraints = @UniqueConstraint(columnNames = "name"))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@Table(name = "categories", uniqueConstraints = {
+        @UniqueConstraint(columnNames = "name"),
+        @UniqueConstraint(name = "uk_categories_name_normalized", columnNames = "name_normalized")
+})
 public class Category {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "learnsphere-category")
+    @GenericGenerator(name = "learnsphere-category", strategy = "learnsphere-category")
     private Long id;
 
     @Column(nullable=false, length=100, unique=true)
     private String name;
 
+    // lookup key kept in sync by setName, so queries can hit the unique index instead of lower(name)
+    @Column(name = "name_normalized", nullable=false, length=100)
+    private String nameNormalized;
+
     @ManyToMany(mappedBy = "categories", fetch = FetchType.LAZY)
     private Set<Course> courses = new HashSet<>();
 
     public Category() {}
-    public Category(String name) { this.name = name; }
+    public Category(String name) { setName(name); }
+
+    public static String normalizeName(String name) { return name == null ? null : name.trim().toLowerCase(Locale.ROOT); }
 
     // getters/setters, toString
     public Long getId() { return id; }
     public String getName() { return name; }
-    public void setName(String name) { this.name = name; }
+    public String getNameNormalized() { return nameNormalized; }
+    public void setName(String name) { this.name = name; this.nameNormalized = normalizeName(name); }
     public Set<Course> getCourses() { return courses; }
 
     @Override public String toString() { return "Category{id=" + id + ", name='" + name + "'}"; }
@@ -1,15 +1,22 @@
 package com.learnsphere.entity;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+
 import javax.persistence.*;
 import java.util.HashSet;
 import java.util.Set;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "courses", indexes = {
         @Index(name="idx_course_name", columnList="name")
 })
 public class Course {
-    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Id @GeneratedValue(generator = "learnsphere-course")
+    @GenericGenerator(name = "learnsphere-course", strategy = "learnsphere-course")
     private Long id;
 
     @Column(nullable=false, length=200)
@@ -22,6 +29,7 @@ public class Course {
     private int durationHours; // total duration
 
     @ManyToMany(fetch = FetchType.LAZY)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JoinTable(
             name = "course_category",
             joinColumns = @JoinColumn(name="course_id"),
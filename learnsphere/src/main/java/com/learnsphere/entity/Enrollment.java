@@ -1,5 +1,7 @@
 package com.learnsphere.entity;
 
+import org.hibernate.annotations.GenericGenerator;
+
 import javax.persistence.*;
 import java.time.LocalDateTime;
 
@@ -7,7 +9,8 @@ import java.time.LocalDateTime;
 @Table(name="enrollments",
        uniqueConstraints = @UniqueConstraint(columnNames = {"user_id","course_id"}))
 public class Enrollment {
-    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Id @GeneratedValue(generator = "learnsphere-enrollment")
+    @GenericGenerator(name = "learnsphere-enrollment", strategy = "learnsphere-enrollment")
     private Long id;
 
     @ManyToOne(optional=false) @JoinColumn(name="user_id")
@@ -1,5 +1,7 @@
 package com.learnsphere.entity;
 
+import org.hibernate.annotations.GenericGenerator;
+
 import javax.persistence.*;
 import java.time.LocalDateTime;
 
@@ -7,7 +9,8 @@ import java.time.LocalDateTime;
 @Table(name="reviews",
        uniqueConstraints = @UniqueConstraint(columnNames = {"user_id","course_id"}))
 public class Review {
-    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Id @GeneratedValue(generator = "learnsphere-review")
+    @GenericGenerator(name = "learnsphere-review", strategy = "learnsphere-review")
     private Long id;
 
     @ManyToOne(optional=false) @JoinColumn(name="user_id")
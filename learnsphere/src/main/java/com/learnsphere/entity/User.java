@@ -1,13 +1,20 @@
 package com.learnsphere.entity;
 
+import org.hibernate.annotations.GenericGenerator;
+
 import javax.persistence.*;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 
 @Entity
-@Table(name="users", uniqueConstraints = @UniqueConstraint(columnNames = "email"))
+@Table(name="users", uniqueConstraints = {
+        @UniqueConstraint(columnNames = "email"),
+        @UniqueConstraint(name = "uk_users_email_normalized", columnNames = "email_normalized")
+})
 public class User {
-    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Id @GeneratedValue(generator = "learnsphere-user")
+    @GenericGenerator(name = "learnsphere-user", strategy = "learnsphere-user") // bound to learnsphere.id.* by IdGeneration
     private Long id;
 
     @Column(nullable=false, length=120)
@@ -16,6 +23,10 @@ public class User {
     @Column(nullable=false, length=150, unique=true)
     private String email;
 
+    // lookup key kept in sync by setEmail, so queries can hit the unique index instead of lower(email)
+    @Column(name="email_normalized", nullable=false, length=150)
+    private String emailNormalized;
+
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, orphanRemoval = true)
     private Set<Enrollment> enrollments = new HashSet<>();
 
@@ -23,17 +34,20 @@ public class User {
     private Set<Review> reviews = new HashSet<>();
 
     public User() {}
-    public User(String name, String email) { this.name = name; this.email = email; }
+    public User(String name, String email) { this.name = name; setEmail(email); }
+
+    public static String normalizeEmail(String email) { return email == null ? null : email.trim().toLowerCase(Locale.ROOT); }
 
     // getters/setters
     public Long getId() { return id; }
     public String getName() { return name; }
     public String getEmail() { return email; }
+    public String getEmailNormalized() { return emailNormalized; }
     public Set<Enrollment> getEnrollments() { return enrollments; }
     public Set<Review> getReviews() { return reviews; }
 
     public void setName(String name) { this.name = name; }
-    public void setEmail(String email) { this.email = email; }
+    public void setEmail(String email) { this.email = email; this.emailNormalized = normalizeEmail(email); }
 
     @Override public String toString() {
         return "User{id=" + id + ", name='" + name + "', email='" + email + "'}";
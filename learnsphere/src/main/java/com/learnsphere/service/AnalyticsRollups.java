@@ -0,0 +1,502 @@
+package com.learnsphere.service;
+
+import com.learnsphere.dto.BucketCount;
+import com.learnsphere.dto.CohortRetention;
+import com.learnsphere.dto.RatingDistribution;
+import com.learnsphere.dto.TimeBucket;
+import com.learnsphere.util.LongObjectHashMap;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Time-bucketed rollups for dashboards: enrollments per course per day, review rating distributions per day
+ * (by the day the review was created, counting its current rating), and weekly cohort retention per category.
+ * <p>
+ * Daily counters are kept in sparse sorted series, so a range query costs a binary search plus one step per
+ * non-empty day; weekly buckets are summed from the daily ones. A user joins the cohort of the week of their
+ * first enrollment in a category and counts as active in every week they enroll in another course of it.
+ * Days are {@link LocalDate#toEpochDay() epoch days} of the stored local timestamps; weeks start on Monday.
+ * <p>
+ * Updates carry the {@link ScanEpochs#begin} token taken before their transaction and, when known, the id of the
+ * row they concern. Updates arriving while a rebuild scans are queued and replayed once it is installed: one whose
+ * row is above the scanned id range is applied, one that may already be counted marks its course stale instead,
+ * and the owner {@link #recount recounts} stale courses before answering. Cohort updates are repeatable and
+ * always applied.
+ */
+class AnalyticsRollups {
+    static final int RATINGS = 11; // 0..10
+    /** Series key of the catalog-wide totals (generated ids start at 1). */
+    private static final long CATALOG = 0L;
+    private static final long[] NONE = new long[0];
+
+    /** Source of a rebuild: the course/category pairs first, then the enrollment and review rows in chunks. */
+    interface Backfill {
+        void courses(CourseSink sink);
+
+        /** The highest enrollment and review ids now (0 when there are none). */
+        long[] maxIds();
+
+        /**
+         * Scans the rows with ids up to {@code maxIds}, typically in parallel; each {@link Chunk} from
+         * {@code newChunk} is filled by one thread.
+         */
+        void scan(long[] maxIds, Supplier<Chunk> newChunk);
+    }
+
+    interface CourseSink { void accept(long courseId, Long categoryId); }
+
+    /** Rollups of one slice of the rows, built without locking and merged into the whole when the scan ends. */
+    static final class Chunk {
+        private final LongObjectHashMap<long[]> courseCategories; // read-only while the scan runs
+        private final LongObjectHashMap<DaySeries> enrollments = new LongObjectHashMap<>();
+        private final LongObjectHashMap<DaySeries> ratings = new LongObjectHashMap<>();
+        private final LongObjectHashMap<LongObjectHashMap<int[]>> weeks = new LongObjectHashMap<>(); // category -> user -> weeks
+
+        private Chunk(LongObjectHashMap<long[]> courseCategories) { this.courseCategories = courseCategories; }
+
+        void enrolled(long userId, long courseId, int day) {
+            series(enrollments, courseId, 1).add(day, 0, 1);
+            series(enrollments, CATALOG, 1).add(day, 0, 1);
+            long[] cats = courseCategories.get(courseId);
+            if (cats == null) return;
+            for (long cat : cats) {
+                LongObjectHashMap<int[]> users = weeks.computeIfAbsent(cat, k -> new LongObjectHashMap<>());
+                users.put(userId, insert(users.get(userId), week(day)));
+            }
+        }
+
+        void reviewed(long courseId, int day, int rating) {
+            series(ratings, courseId, RATINGS).add(day, rating, 1);
+            series(ratings, CATALOG, RATINGS).add(day, rating, 1);
+        }
+    }
+
+    /** Sparse counters per day: sorted epoch days, {@code width} counters for each. */
+    static final class DaySeries {
+        final int width;
+        int[] days = new int[4];
+        long[] counts;
+        int size;
+
+        DaySeries(int width) { this.width = width; this.counts = new long[4 * width]; }
+
+        void add(int day, int slot, long delta) {
+            if (delta == 0) return;
+            int i = size > 0 && days[size - 1] < day ? -size - 1 : Arrays.binarySearch(days, 0, size, day); // appends are the norm
+            if (i < 0) insertAt(i = -i - 1, day);
+            counts[i * width + slot] += delta;
+            if (delta < 0 && isEmpty(i)) removeAt(i);
+        }
+
+        void addAll(DaySeries other, int sign) {
+            for (int j = 0; j < other.size; j++) {
+                for (int s = 0; s < width; s++) add(other.days[j], s, sign * other.counts[j * width + s]);
+            }
+        }
+
+        /** Index of the first day on or after {@code day}. */
+        int lowerBound(int day) {
+            int i = Arrays.binarySearch(days, 0, size, day);
+            return i < 0 ? -i - 1 : i;
+        }
+
+        private boolean isEmpty(int i) {
+            for (int s = 0; s < width; s++) if (counts[i * width + s] != 0) return false;
+            return true;
+        }
+
+        private void insertAt(int i, int day) {
+            if (size == days.length) {
+                days = Arrays.copyOf(days, size * 2);
+                counts = Arrays.copyOf(counts, size * 2 * width);
+            }
+            System.arraycopy(days, i, days, i + 1, size - i);
+            System.arraycopy(counts, i * width, counts, (i + 1) * width, (size - i) * width);
+            days[i] = day;
+            Arrays.fill(counts, i * width, (i + 1) * width, 0);
+            size++;
+        }
+
+        private void removeAt(int i) {
+            System.arraycopy(days, i + 1, days, i, size - i - 1);
+            System.arraycopy(counts, (i + 1) * width, counts, i * width, (size - i - 1) * width);
+            size--;
+        }
+    }
+
+    private static final class Cohort {
+        long size;
+        long[] active = new long[4]; // users active per week since the cohort week
+
+        void add(int offset, long delta) {
+            if (offset >= active.length) active = Arrays.copyOf(active, Math.max(offset + 1, active.length * 2));
+            active[offset] += delta;
+        }
+    }
+
+    /** Cohorts of one category, plus each user's sorted active weeks to place repeat enrollments. */
+    private static final class Cohorts {
+        final LongObjectHashMap<int[]> weeksByUser = new LongObjectHashMap<>();
+        final TreeMap<Integer, Cohort> byWeek = new TreeMap<>();
+
+        void active(long userId, int week) {
+            int[] weeks = weeksByUser.get(userId);
+            int[] updated = insert(weeks, week);
+            if (updated == weeks) return;
+            if (weeks != null && week > weeks[0]) {
+                byWeek.get(weeks[0]).add(week - weeks[0], 1);
+            } else { // first enrollment, or an earlier one that moves the user to another cohort
+                if (weeks != null) count(weeks, -1);
+                count(updated, 1);
+            }
+            weeksByUser.put(userId, updated);
+        }
+
+        void removeUser(long userId) {
+            int[] weeks = weeksByUser.remove(userId);
+            if (weeks != null) count(weeks, -1);
+        }
+
+        void count(int[] weeks, int sign) {
+            Cohort c = byWeek.computeIfAbsent(weeks[0], k -> new Cohort());
+            c.size += sign;
+            for (int w : weeks) c.add(w - weeks[0], sign);
+            if (c.size == 0) byWeek.remove(weeks[0]);
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongObjectHashMap<DaySeries> enrollments = new LongObjectHashMap<>();
+    private final LongObjectHashMap<DaySeries> ratings = new LongObjectHashMap<>();
+    private final LongObjectHashMap<long[]> courseCategories = new LongObjectHashMap<>();
+    private final LongObjectHashMap<Cohorts> cohorts = new LongObjectHashMap<>();
+    private final Set<Long> stale = new HashSet<>();    // courses whose series need a recount
+    private final ScanEpochs epochs = new ScanEpochs();
+    private long maxEnrollmentId, maxReviewId;          // covered by the last rebuild
+    private volatile boolean loaded;
+    private final List<Runnable> queued = new ArrayList<>(); // updates arriving during a rebuild; guarded by itself
+    private volatile boolean rebuilding;                     // changed holding queued
+
+    boolean isLoaded() { return loaded; }
+
+    void invalidate() { loaded = false; }
+
+    /* ======== Backfill ======== */
+    /** Reloads everything from {@code backfill}; updates arriving meanwhile are queued, then replayed. */
+    void rebuild(Backfill backfill) {
+        lock.writeLock().lock();
+        try {
+            synchronized (queued) { rebuilding = true; }
+            try {
+                load(backfill);
+            } catch (RuntimeException | Error e) {
+                loaded = false;
+                throw e;
+            } finally {
+                List<Runnable> replay;
+                synchronized (queued) {
+                    replay = new ArrayList<>(queued);
+                    queued.clear();
+                    rebuilding = false;
+                }
+                if (loaded) for (Runnable change : replay) change.run();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void load(Backfill backfill) {
+        enrollments.clear();
+        ratings.clear();
+        courseCategories.clear();
+        cohorts.clear();
+        stale.clear();
+        backfill.courses((courseId, categoryId) -> {
+            long[] cats = courseCategories.get(courseId);
+            if (cats == null) cats = NONE;
+            if (categoryId != null) cats = append(cats, categoryId);
+            courseCategories.put(courseId, cats);
+        });
+        long[] maxIds = backfill.maxIds();
+        List<Chunk> chunks = Collections.synchronizedList(new ArrayList<>());
+        backfill.scan(maxIds, () -> {
+            Chunk c = new Chunk(courseCategories);
+            chunks.add(c);
+            return c;
+        });
+        LongObjectHashMap<LongObjectHashMap<int[]>> weeks = new LongObjectHashMap<>();
+        for (Chunk c : chunks) {
+            merge(enrollments, c.enrollments);
+            merge(ratings, c.ratings);
+            c.weeks.forEach((cat, users) -> {
+                LongObjectHashMap<int[]> all = weeks.computeIfAbsent(cat, k -> new LongObjectHashMap<>());
+                users.forEach((user, ws) -> {
+                    int[] merged = all.get(user);
+                    for (int w : ws) merged = insert(merged, w);
+                    all.put(user, merged);
+                });
+            });
+        }
+        weeks.forEach((cat, users) -> {
+            Cohorts cs = new Cohorts();
+            users.forEach((user, ws) -> { cs.weeksByUser.put(user, ws); cs.count(ws, 1); });
+            cohorts.put(cat, cs);
+        });
+        maxEnrollmentId = maxIds[0];
+        maxReviewId = maxIds[1];
+        epochs.rebuilt();
+        loaded = true;
+    }
+
+    private static void merge(LongObjectHashMap<DaySeries> into, LongObjectHashMap<DaySeries> from) {
+        from.forEach((id, s) -> {
+            DaySeries target = into.get(id);
+            if (target == null) into.put(id, s);
+            else target.addAll(s, 1);
+        });
+    }
+
+    /* ======== Incremental updates, applied after the write commits ======== */
+    void courseAdded(long courseId, Collection<Long> categoryIds) {
+        write(() -> {
+            long[] cats = new long[categoryIds.size()];
+            int i = 0;
+            for (Long id : categoryIds) cats[i++] = id;
+            courseCategories.put(courseId, cats);
+        });
+    }
+
+    void courseRemoved(long courseId) {
+        write(() -> {
+            stale.remove(courseId);
+            epochs.forget(courseId);
+            courseCategories.remove(courseId);
+            DaySeries e = enrollments.remove(courseId);
+            if (e != null) series(enrollments, CATALOG, 1).addAll(e, -1);
+            DaySeries r = ratings.remove(courseId);
+            if (r != null) series(ratings, CATALOG, RATINGS).addAll(r, -1);
+        });
+    }
+
+    void categoryRemoved(long categoryId) {
+        write(() -> {
+            cohorts.remove(categoryId);
+            List<long[]> changed = new ArrayList<>();
+            courseCategories.forEach((course, cats) -> {
+                for (long c : cats) if (c == categoryId) { changed.add(new long[]{ course }); break; }
+            });
+            for (long[] c : changed) {
+                long[] cats = courseCategories.get(c[0]), kept = new long[cats.length - 1];
+                int n = 0;
+                for (long id : cats) if (id != categoryId) kept[n++] = id;
+                courseCategories.put(c[0], kept);
+            }
+        });
+    }
+
+    /** A new enrollment, begun at {@code token}; {@code enrollmentId} is null when not known. */
+    void enrolled(long token, Long enrollmentId, long userId, long courseId, int day) {
+        write(() -> {
+            long[] cats = courseCategories.get(courseId);
+            if (cats != null) for (long cat : cats) cohorts.computeIfAbsent(cat, k -> new Cohorts()).active(userId, week(day));
+            if (!applies(token, courseId, above(enrollmentId, maxEnrollmentId))) return;
+            series(enrollments, courseId, 1).add(day, 0, 1);
+            series(enrollments, CATALOG, 1).add(day, 0, 1);
+        });
+    }
+
+    /** A removed enrollment; cohorts follow through {@link #userRemoved}, the only way enrollments go away. */
+    void unenrolled(long token, long enrollmentId, long courseId, int day) {
+        write(() -> {
+            if (!applies(token, courseId, enrollmentId > maxEnrollmentId)) return;
+            series(enrollments, courseId, 1).add(day, 0, -1);
+            series(enrollments, CATALOG, 1).add(day, 0, -1);
+        });
+    }
+
+    void userRemoved(long userId) {
+        write(() -> cohorts.forEach((cat, cs) -> cs.removeUser(userId)));
+    }
+
+    /** A new review ({@code oldRating == null}) or a changed rating on one created on {@code day}. */
+    void reviewed(long token, long reviewId, long courseId, int day, Integer oldRating, int newRating) {
+        write(() -> {
+            if (!applies(token, courseId, reviewId > maxReviewId)) return;
+            for (long key : new long[]{ courseId, CATALOG }) {
+                DaySeries s = series(ratings, key, RATINGS);
+                if (oldRating != null) s.add(day, oldRating, -1);
+                s.add(day, newRating, 1);
+            }
+        });
+    }
+
+    void reviewRemoved(long token, long reviewId, long courseId, int day, int rating) {
+        write(() -> {
+            if (!applies(token, courseId, reviewId > maxReviewId)) return;
+            series(ratings, courseId, RATINGS).add(day, rating, -1);
+            series(ratings, CATALOG, RATINGS).add(day, rating, -1);
+        });
+    }
+
+    /** Marks a course whose rows changed in a way the rollups cannot follow; see {@link #recount}. */
+    void markStale(long courseId) {
+        write(() -> {
+            epochs.touched(courseId);
+            stale.add(courseId);
+        });
+    }
+
+    List<Long> staleCourses() {
+        lock.readLock().lock();
+        try {
+            return stale.isEmpty() ? Collections.emptyList() : new ArrayList<>(stale);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the enrollment and rating series of {@code courseIds} with rows recounted by a query that began at
+     * {@code token}: {@code [courseId, epochDay, count]} enrollments and {@code [courseId, epochDay, rating, count]}
+     * reviews. Courses updated meanwhile stay stale.
+     */
+    void recount(long token, Collection<Long> courseIds, List<long[]> enrolled, List<long[]> reviewed) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            DaySeries allEnrolled = series(enrollments, CATALOG, 1), allRatings = series(ratings, CATALOG, RATINGS);
+            for (Long id : courseIds) {
+                if (epochs.recounted(token, id)) stale.remove(id);
+                DaySeries e = enrollments.remove(id);
+                if (e != null) allEnrolled.addAll(e, -1);
+                DaySeries r = ratings.remove(id);
+                if (r != null) allRatings.addAll(r, -1);
+            }
+            for (long[] e : enrolled) {
+                series(enrollments, e[0], 1).add((int) e[1], 0, e[2]);
+                allEnrolled.add((int) e[1], 0, e[2]);
+            }
+            for (long[] r : reviewed) {
+                series(ratings, r[0], RATINGS).add((int) r[1], (int) r[2], r[3]);
+                allRatings.add((int) r[1], (int) r[2], r[3]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Queued while a rebuild runs (see {@link #rebuild}), dropped before the first one. */
+    private void write(Runnable change) {
+        if (!loaded && !rebuilding) return;
+        synchronized (queued) {
+            if (rebuilding) { queued.add(change); return; }
+        }
+        lock.writeLock().lock();
+        try {
+            if (loaded) change.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Whether a delta applies; if it may already be counted, its course is marked stale instead. */
+    private boolean applies(long token, long courseId, boolean unscanned) {
+        if (epochs.applies(token, courseId, unscanned)) return true;
+        stale.add(courseId);
+        return false;
+    }
+
+    private static boolean above(Long id, long max) { return id != null && id > max; }
+
+    /* ======== Queries: one step per non-empty day in range ======== */
+    /** Enrollments per bucket of the course (the whole catalog when null); empty buckets are omitted. */
+    List<BucketCount> enrollments(Long courseId, TimeBucket bucket, LocalDate from, LocalDate to) {
+        List<BucketCount> out = new ArrayList<>();
+        scan(enrollments, courseId, bucket, from, to, (start, c) -> out.add(new BucketCount(start, c[0])));
+        return out;
+    }
+
+    /** Rating distribution per bucket of the course (the whole catalog when null); empty buckets are omitted. */
+    List<RatingDistribution> ratings(Long courseId, TimeBucket bucket, LocalDate from, LocalDate to) {
+        List<RatingDistribution> out = new ArrayList<>();
+        scan(ratings, courseId, bucket, from, to, (start, c) -> out.add(new RatingDistribution(start, c)));
+        return out;
+    }
+
+    private interface BucketSink { void accept(LocalDate start, long[] counts); }
+
+    private void scan(LongObjectHashMap<DaySeries> all, Long id, TimeBucket bucket, LocalDate from, LocalDate to, BucketSink sink) {
+        boolean weekly = bucket == TimeBucket.WEEK;
+        int lo = (int) from.toEpochDay(), hi = (int) to.toEpochDay();
+        if (weekly) { lo = weekStart(lo); hi = weekStart(hi) + 6; } // whole weeks only
+        lock.readLock().lock();
+        try {
+            DaySeries s = all.get(id == null ? CATALOG : id);
+            if (s == null) return;
+            long[] acc = null;
+            int current = 0;
+            for (int i = s.lowerBound(lo); i < s.size && s.days[i] <= hi; i++) {
+                int start = weekly ? weekStart(s.days[i]) : s.days[i];
+                if (acc != null && start != current) { sink.accept(LocalDate.ofEpochDay(current), acc); acc = null; }
+                if (acc == null) { acc = new long[s.width]; current = start; }
+                for (int k = 0; k < s.width; k++) acc[k] += s.counts[i * s.width + k];
+            }
+            if (acc != null) sink.accept(LocalDate.ofEpochDay(current), acc);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Cohorts of the category that started in [from, to], each with its first {@code weeks} weeks of activity. */
+    List<CohortRetention> cohorts(long categoryId, LocalDate from, LocalDate to, int weeks) {
+        List<CohortRetention> out = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Cohorts cs = cohorts.get(categoryId);
+            if (cs == null) return out;
+            int lo = week((int) from.toEpochDay()), hi = week((int) to.toEpochDay());
+            for (Map.Entry<Integer, Cohort> e : cs.byWeek.subMap(lo, true, hi, true).entrySet()) {
+                Cohort c = e.getValue();
+                long[] active = Arrays.copyOf(c.active, Math.max(1, weeks));
+                out.add(new CohortRetention(LocalDate.ofEpochDay(e.getKey() * 7L - 3), c.size, active));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return out;
+    }
+
+    /* ======== Helpers ======== */
+    private static DaySeries series(LongObjectHashMap<DaySeries> all, long id, int width) {
+        return all.computeIfAbsent(id, k -> new DaySeries(width));
+    }
+
+    /** Monday-based week number; epoch day 0 (1970-01-01) was a Thursday. */
+    static int week(int day) { return Math.floorDiv(day + 3, 7); }
+
+    static int weekStart(int day) { return day - Math.floorMod(day + 3, 7); }
+
+    /** {@code weeks} with {@code w} added in order; the same array when already present. */
+    private static int[] insert(int[] weeks, int w) {
+        if (weeks == null) return new int[]{ w };
+        int i = Arrays.binarySearch(weeks, w);
+        if (i >= 0) return weeks;
+        i = -i - 1;
+        int[] out = new int[weeks.length + 1];
+        System.arraycopy(weeks, 0, out, 0, i);
+        out[i] = w;
+        System.arraycopy(weeks, i, out, i + 1, weeks.length - i);
+        return out;
+    }
+
+    private static long[] append(long[] a, long v) {
+        long[] out = Arrays.copyOf(a, a.length + 1);
+        out[a.length] = v;
+        return out;
+    }
+}
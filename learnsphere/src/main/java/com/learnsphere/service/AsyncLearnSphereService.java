@@ -0,0 +1,202 @@
+package com.learnsphere.service;
+
+import com.learnsphere.dto.*;
+import com.learnsphere.entity.*;
+import com.learnsphere.util.Config;
+import com.learnsphere.util.HibernateUtil;
+
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * {@link CompletableFuture}-returning facade over {@link LearnSphereService}.
+ * <p>
+ * Calls run on virtual threads when the runtime has them (Java 21+, looked up reflectively so the jar still
+ * targets Java 8), otherwise on a fixed platform pool. At most {@code concurrency} calls touch the database at
+ * once (default: the connection pool size), and at most {@code maxPending} calls may be waiting or running;
+ * beyond that, futures fail immediately with {@link RejectedExecutionException} instead of queueing without bound.
+ * The synchronous service stays fully usable alongside.
+ */
+public class AsyncLearnSphereService implements AutoCloseable {
+    private final LearnSphereService service;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Semaphore permits;
+    private final int maxPending;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /** Concurrency {@code learnsphere.async.concurrency} (default pool size), backlog {@code learnsphere.async.max_pending}. */
+    public AsyncLearnSphereService(LearnSphereService service) {
+        this(service, Config.getInt("learnsphere.async.concurrency", HibernateUtil.getPoolSize()),
+                Config.getInt("learnsphere.async.max_pending", 16 * HibernateUtil.getPoolSize()));
+    }
+
+    public AsyncLearnSphereService(LearnSphereService service, int concurrency, int maxPending) {
+        this.service = service;
+        this.permits = new Semaphore(concurrency);
+        this.maxPending = Math.max(concurrency, maxPending);
+        ExecutorService vt = newVirtualThreadExecutor();
+        this.virtualThreads = vt != null;
+        this.executor = vt != null ? vt : newPlatformExecutor(concurrency);
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        if (!Config.getBoolean("learnsphere.async.virtual_threads", true)) return null;
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null; // pre-21 runtime
+        }
+    }
+
+    private static ExecutorService newPlatformExecutor(int threads) {
+        AtomicInteger n = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "learnsphere-async-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public boolean usesVirtualThreads() { return virtualThreads; }
+
+    /** Calls waiting for or holding a database slot right now. */
+    public int pending() { return pending.get(); }
+
+    /** Runs any service call asynchronously under the same concurrency limit and backpressure. */
+    public <T> CompletableFuture<T> submit(Function<LearnSphereService, T> call) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new RejectedExecutionException(
+                    "LearnSphere async backlog full (" + maxPending + " pending calls)"));
+            return rejected;
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    permits.acquireUninterruptibly();
+                    try {
+                        return call.apply(service);
+                    } finally {
+                        permits.release();
+                    }
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) { // executor shut down
+            pending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* ======== Category ======== */
+    public CompletableFuture<Category> createCategory(String name) { return submit(s -> s.createCategory(name)); }
+    public CompletableFuture<Category> getCategory(Long id) { return submit(s -> s.getCategory(id)); }
+    public CompletableFuture<Category> findCategoryByName(String name) { return submit(s -> s.findCategoryByName(name)); }
+    public CompletableFuture<List<Category>> listCategories() { return submit(LearnSphereService::listCategories); }
+    public CompletableFuture<Void> updateCategory(Long id, String newName) { return run(s -> s.updateCategory(id, newName)); }
+    public CompletableFuture<Void> deleteCategory(Long id) { return run(s -> s.deleteCategory(id)); }
+
+    /* ======== Course ======== */
+    public CompletableFuture<Course> addCourse(String name, String instructor, int durationHours, List<String> categoryNames) {
+        return submit(s -> s.addCourse(name, instructor, durationHours, categoryNames));
+    }
+    public CompletableFuture<Course> getCourse(Long id) { return submit(s -> s.getCourse(id)); }
+    public CompletableFuture<List<Course>> listCourses() { return submit(LearnSphereService::listCourses); }
+    public CompletableFuture<Void> updateCourse(Long id, String name, String instructor, Integer durationHours) {
+        return run(s -> s.updateCourse(id, name, instructor, durationHours));
+    }
+    public CompletableFuture<Void> deleteCourse(Long id) { return run(s -> s.deleteCourse(id)); }
+
+    /* ======== User ======== */
+    public CompletableFuture<User> registerUser(String name, String email) { return submit(s -> s.registerUser(name, email)); }
+    public CompletableFuture<User> getUser(Long id) { return submit(s -> s.getUser(id)); }
+    public CompletableFuture<User> findUserByEmail(String email) { return submit(s -> s.findUserByEmail(email)); }
+    public CompletableFuture<List<User>> listUsers() { return submit(LearnSphereService::listUsers); }
+    public CompletableFuture<Void> updateUser(Long id, String name, String email) { return run(s -> s.updateUser(id, name, email)); }
+    public CompletableFuture<Void> deleteUser(Long id) { return run(s -> s.deleteUser(id)); }
+
+    /* ======== Enrollments & reviews ======== */
+    public CompletableFuture<Enrollment> enrollUserInCourse(Long userId, Long courseId) {
+        return submit(s -> s.enrollUserInCourse(userId, courseId));
+    }
+    public CompletableFuture<Boolean> upsertEnrollment(Long userId, Long courseId) {
+        return submit(s -> s.upsertEnrollment(userId, courseId));
+    }
+    public CompletableFuture<List<Course>> listCoursesByUser(Long userId) { return submit(s -> s.listCoursesByUser(userId)); }
+    public CompletableFuture<long[]> listCourseIdsByUser(Long userId) { return submit(s -> s.listCourseIdsByUser(userId)); }
+    public CompletableFuture<Boolean> isEnrolled(Long userId, Long courseId) { return submit(s -> s.isEnrolled(userId, courseId)); }
+    public CompletableFuture<Integer> countEnrollments(Long courseId) { return submit(s -> s.countEnrollments(courseId)); }
+    public CompletableFuture<Review> addReview(Long userId, Long courseId, int rating, String text) {
+        return submit(s -> s.addReview(userId, courseId, rating, text));
+    }
+    public CompletableFuture<Boolean> upsertReview(Long userId, Long courseId, int rating, String text) {
+        return submit(s -> s.upsertReview(userId, courseId, rating, text));
+    }
+    public CompletableFuture<Void> submitReview(Long userId, Long courseId, int rating, String text) {
+        return run(s -> s.submitReview(userId, courseId, rating, text));
+    }
+    public CompletableFuture<Review> findReview(Long userId, Long courseId) { return submit(s -> s.findReview(userId, courseId)); }
+    public CompletableFuture<Double> getAverageRatingForCourse(Long courseId) { return submit(s -> s.getAverageRatingForCourse(courseId)); }
+    public CompletableFuture<Map<Long, Double>> getAverageRatings(Collection<Long> courseIds) { return submit(s -> s.getAverageRatings(courseIds)); }
+
+    /* ======== Search, listings, admin ======== */
+    public CompletableFuture<List<Course>> searchCourses(String keywordOrCategory) { return submit(s -> s.searchCourses(keywordOrCategory)); }
+    public CompletableFuture<List<ReviewHit>> searchReviews(String query, Long courseId, Integer minRating, Integer maxRating, int limit) {
+        return submit(s -> s.searchReviews(query, courseId, minRating, maxRating, limit));
+    }
+    public CompletableFuture<Page<CourseSummary>> listCoursesPage(SortKey sort, String cursor, int pageSize) {
+        return submit(s -> s.listCoursesPage(sort, cursor, pageSize));
+    }
+    public CompletableFuture<Page<UserSummary>> listUsersPage(SortKey sort, String cursor, int pageSize) {
+        return submit(s -> s.listUsersPage(sort, cursor, pageSize));
+    }
+    public CompletableFuture<Page<CategorySummary>> listCategoriesPage(SortKey sort, String cursor, int pageSize) {
+        return submit(s -> s.listCategoriesPage(sort, cursor, pageSize));
+    }
+    public CompletableFuture<Page<CourseSummary>> listCoursesByUserPage(Long userId, SortKey sort, String cursor, int pageSize) {
+        return submit(s -> s.listCoursesByUserPage(userId, sort, cursor, pageSize));
+    }
+    public CompletableFuture<List<Recommendation>> recommendForCourse(Long courseId, int k, boolean weightByRating) {
+        return submit(s -> s.recommendForCourse(courseId, k, weightByRating));
+    }
+    public CompletableFuture<List<Recommendation>> recommendForUser(Long userId, int k, boolean weightByRating) {
+        return submit(s -> s.recommendForUser(userId, k, weightByRating));
+    }
+    public CompletableFuture<List<RankedCourse>> topCourses(LeaderboardMetric metric, Long categoryId, int n) {
+        return submit(s -> s.topCourses(metric, categoryId, n));
+    }
+    public CompletableFuture<List<BucketCount>> enrollmentCounts(Long courseId, TimeBucket bucket, LocalDate from, LocalDate to) {
+        return submit(s -> s.enrollmentCounts(courseId, bucket, from, to));
+    }
+    public CompletableFuture<List<RatingDistribution>> ratingDistribution(Long courseId, TimeBucket bucket, LocalDate from, LocalDate to) {
+        return submit(s -> s.ratingDistribution(courseId, bucket, from, to));
+    }
+    public CompletableFuture<List<CohortRetention>> cohortRetention(Long categoryId, LocalDate from, LocalDate to, int weeks) {
+        return submit(s -> s.cohortRetention(categoryId, from, to, weeks));
+    }
+    public CompletableFuture<Map<User, List<Course>>> adminUsersWithEnrollments() { return submit(LearnSphereService::adminUsersWithEnrollments); }
+
+    private CompletableFuture<Void> run(Consumer<LearnSphereService> call) {
+        return submit(s -> { call.accept(s); return null; });
+    }
+}
@@ -0,0 +1,101 @@
+package com.learnsphere.service;
+
+import com.learnsphere.util.Config;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent single-key lookups into one batch fetch.
+ * <p>
+ * The first caller to find no open batch opens one and becomes its leader: it waits up to {@code windowNanos}
+ * (less if {@code maxBatch} distinct keys arrive first) while other callers add their keys, then closes the
+ * batch, fetches every key with one call on its own thread and hands each waiter its value. Callers asking for a
+ * key already in the open batch share its result, so they also share the returned object. A failed fetch fails
+ * every waiter of that batch with the same exception.
+ */
+final class BatchLoader<K, V> {
+    private static final class Batch<K, V> {
+        final Map<K, CompletableFuture<V>> waiting = new LinkedHashMap<>();
+    }
+
+    private final Function<Set<K>, Map<K, V>> fetch;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final Object lock = new Object();
+    private Batch<K, V> open; // guarded by lock
+
+    /**
+     * A loader over {@code fetch}, or null unless {@code learnsphere.batch_loader.enabled=true};
+     * {@code learnsphere.batch_loader.window_micros} (500) and {@code .max_size} (100) shape the batches.
+     */
+    static <K, V> BatchLoader<K, V> fromConfig(Function<Set<K>, Map<K, V>> fetch) {
+        if (!Config.getBoolean("learnsphere.batch_loader.enabled", false)) return null;
+        return new BatchLoader<>(fetch,
+                Config.getLong("learnsphere.batch_loader.window_micros", 500) * 1_000L,
+                Config.getInt("learnsphere.batch_loader.max_size", 100));
+    }
+
+    BatchLoader(Function<Set<K>, Map<K, V>> fetch, long windowNanos, int maxBatch) {
+        if (maxBatch < 1) throw new IllegalArgumentException("Batch size must be positive: " + maxBatch);
+        this.fetch = fetch;
+        this.windowNanos = windowNanos;
+        this.maxBatch = maxBatch;
+    }
+
+    /** The value for {@code key} (null if the fetch has none), loaded together with whatever else is asked meanwhile. */
+    V load(K key) {
+        Batch<K, V> batch;
+        CompletableFuture<V> result;
+        boolean leader;
+        synchronized (lock) {
+            leader = open == null;
+            if (leader) open = new Batch<>();
+            batch = open;
+            result = batch.waiting.computeIfAbsent(key, k -> new CompletableFuture<>());
+            if (batch.waiting.size() >= maxBatch) {
+                open = null; // full: later callers start the next batch
+                lock.notifyAll();
+            }
+            if (leader) awaitWindow(batch);
+        }
+        if (leader) dispatch(batch);
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /** Called holding {@code lock}; waiting releases it so others can join the batch. */
+    private void awaitWindow(Batch<K, V> batch) {
+        long deadline = System.nanoTime() + windowNanos;
+        try {
+            for (long left; open == batch && (left = deadline - System.nanoTime()) > 0; ) TimeUnit.NANOSECONDS.timedWait(lock, left);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // fetch what we have; the caller sees the flag
+        }
+        if (open == batch) open = null;
+    }
+
+    private void dispatch(Batch<K, V> batch) {
+        // the batch is closed, so its map no longer changes
+        Map<K, V> values;
+        try {
+            values = fetch.apply(Collections.unmodifiableSet(batch.waiting.keySet()));
+        } catch (RuntimeException | Error e) {
+            for (CompletableFuture<V> f : batch.waiting.values()) f.completeExceptionally(e);
+            throw e;
+        }
+        for (Map.Entry<K, CompletableFuture<V>> e : batch.waiting.entrySet()) e.getValue().complete(values.get(e.getKey()));
+    }
+}
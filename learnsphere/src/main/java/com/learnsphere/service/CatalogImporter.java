@@ -0,0 +1,340 @@
+package com.learnsphere.service;
+
+import com.learnsphere.entity.*;
+import com.learnsphere.util.HibernateUtil;
+import com.learnsphere.util.LongHashSet;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Bulk import of courses, users and enrollments from CSV or JSON Lines files.
+ * <p>
+ * Records are streamed, categories/users/courses are resolved through in-memory maps loaded once per import,
+ * and rows are written in chunked transactions with JDBC batching. A failed chunk is rolled back and replayed
+ * row by row, so one bad record costs only itself and never aborts the import.
+ * <p>
+ * Expected fields: courses {@code name, instructor, durationHours, categories} (categories separated by {@code |});
+ * users {@code name, email}; enrollments {@code email, course} (course id or exact course name).
+ */
+public class CatalogImporter {
+    public enum Kind { COURSES, USERS, ENROLLMENTS }
+
+    /** Called after every chunk with cumulative counts. */
+    @FunctionalInterface
+    public interface ProgressListener { void onProgress(Report progress); }
+
+    public static final class Report {
+        private final Kind kind;
+        private final long startNanos = System.nanoTime();
+        private long read, imported, skipped, failed, failedChunks, elapsedNanos;
+        private final List<String> errors = new ArrayList<>();
+
+        private Report(Kind kind) { this.kind = kind; }
+
+        public Kind getKind() { return kind; }
+        public long getRead() { return read; }
+        public long getImported() { return imported; }
+        public long getSkipped() { return skipped; }
+        public long getFailed() { return failed; }
+        public long getFailedChunks() { return failedChunks; }
+        public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+        /** First errors encountered (capped), as "line N: message". */
+        public List<String> getErrors() { return errors; }
+        public double getRecordsPerSecond() { return elapsedNanos == 0 ? 0 : read * 1e9 / elapsedNanos; }
+
+        private void error(long line, String msg) { if (errors.size() < MAX_ERRORS) errors.add("line " + line + ": " + msg); }
+        private void tick() { elapsedNanos = System.nanoTime() - startNanos; }
+
+        @Override public String toString() {
+            return String.format(Locale.US, "%s: read=%d imported=%d skipped=%d failed=%d failedChunks=%d in %d ms (%.0f rec/s)",
+                    kind, read, imported, skipped, failed, failedChunks, getElapsedMillis(), getRecordsPerSecond());
+        }
+    }
+
+    private static final int MAX_ERRORS = 100;
+
+    private final SessionFactory sf;
+    private final LearnSphereService service;
+    private int chunkSize = 5_000;
+    private int batchSize = 100;
+    private ProgressListener listener;
+
+    public CatalogImporter(LearnSphereService service) {
+        this(HibernateUtil.getSessionFactory(), service);
+    }
+
+    CatalogImporter(SessionFactory sf, LearnSphereService service) {
+        this.sf = sf;
+        this.service = service;
+    }
+
+    /** Records per transaction (default 5000). */
+    public CatalogImporter chunkSize(int chunkSize) { this.chunkSize = Math.max(1, chunkSize); return this; }
+    /** JDBC batch size and flush/clear interval inside a chunk (default 100). */
+    public CatalogImporter batchSize(int batchSize) { this.batchSize = Math.max(1, batchSize); return this; }
+    public CatalogImporter progress(ProgressListener listener) { this.listener = listener; return this; }
+
+    public Report importFile(Kind kind, Path file) throws IOException {
+        try (RecordReader in = new RecordReader(Files.newBufferedReader(file, StandardCharsets.UTF_8),
+                RecordReader.formatOf(file.getFileName().toString()))) {
+            return importRecords(kind, in);
+        }
+    }
+
+    Report importRecords(Kind kind, RecordReader in) {
+        Report report = new Report(kind);
+        Lookups lookups = new Lookups(kind);
+        List<Row> chunk = new ArrayList<>(chunkSize);
+        try {
+            while (true) {
+                Map<String, String> rec;
+                try {
+                    if (!in.hasNext()) break;
+                    rec = in.next();
+                } catch (IllegalArgumentException parseError) {
+                    report.read++; report.failed++;
+                    report.error(in.line(), parseError.getMessage());
+                    continue;
+                }
+                report.read++;
+                chunk.add(new Row(in.line(), rec));
+                if (chunk.size() >= chunkSize) { writeChunk(kind, chunk, lookups, report); chunk.clear(); }
+            }
+            if (!chunk.isEmpty()) writeChunk(kind, chunk, lookups, report);
+        } finally {
+            report.tick();
+            if (report.imported > 0) service.invalidateInMemoryState();
+        }
+        return report;
+    }
+
+    /* ======== Chunk handling ======== */
+    private static final class Row {
+        final long line;
+        final Map<String, String> rec;
+        Row(long line, Map<String, String> rec) { this.line = line; this.rec = rec; }
+        String get(String field) {
+            String v = rec.get(field);
+            return v == null ? null : v.trim();
+        }
+        String require(String field) {
+            String v = get(field);
+            if (v == null || v.isEmpty()) throw new IllegalArgumentException("missing field '" + field + "'");
+            return v;
+        }
+    }
+
+    /** Thrown for rows that are valid but already present; counted as skipped, not failed. */
+    private static final class Duplicate extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        Duplicate(String msg) { super(msg, null, false, false); }
+    }
+
+    private void writeChunk(Kind kind, List<Row> rows, Lookups lookups, Report report) {
+        Lookups.Pending pending = lookups.begin();
+        long[] counts = new long[2]; // imported, skipped
+        try {
+            inTx(s -> {
+                int n = 0;
+                for (Row row : rows) {
+                    try {
+                        writeRow(kind, s, row, pending);
+                        counts[0]++;
+                    } catch (Duplicate d) {
+                        counts[1]++;
+                    }
+                    if (++n % batchSize == 0) { s.flush(); s.clear(); }
+                }
+            });
+            pending.commit();
+            report.imported += counts[0];
+            report.skipped += counts[1];
+        } catch (RuntimeException chunkError) {
+            // replay the chunk one row per transaction so only the offending rows are lost
+            report.failedChunks++;
+            for (Row row : rows) {
+                Lookups.Pending single = lookups.begin();
+                try {
+                    boolean[] dup = { false };
+                    inTx(s -> {
+                        try { writeRow(kind, s, row, single); } catch (Duplicate d) { dup[0] = true; }
+                    });
+                    single.commit();
+                    if (dup[0]) report.skipped++; else report.imported++;
+                } catch (RuntimeException rowError) {
+                    report.failed++;
+                    report.error(row.line, rootMessage(rowError));
+                }
+            }
+        }
+        report.tick();
+        if (listener != null) listener.onProgress(report);
+    }
+
+    private void writeRow(Kind kind, Session s, Row row, Lookups.Pending p) {
+        switch (kind) {
+            case COURSES: {
+                Course c = new Course(row.require("name"), row.require("instructor"),
+                        Integer.parseInt(row.require("durationHours")));
+                String cats = row.get("categories");
+                if (cats != null) {
+                    for (String raw : cats.split("[|;]")) {
+                        String name = raw.trim();
+                        if (name.isEmpty()) continue;
+                        Long catId = p.category(name);
+                        Category cat;
+                        if (catId != null) cat = s.load(Category.class, catId);
+                        else {
+                            cat = new Category(name);
+                            s.save(cat);
+                            p.newCategory(name, cat.getId());
+                        }
+                        c.getCategories().add(cat);
+                    }
+                }
+                s.save(c);
+                return;
+            }
+            case USERS: {
+                String email = User.normalizeEmail(row.require("email"));
+                if (p.user(email) != null) throw new Duplicate(email);
+                User u = new User(row.require("name"), email);
+                s.save(u);
+                p.newUser(email, u.getId());
+                return;
+            }
+            case ENROLLMENTS: {
+                String email = row.require("email");
+                Long uid = p.user(User.normalizeEmail(email));
+                if (uid == null) throw new IllegalArgumentException("unknown user " + email);
+                String course = row.require("course");
+                Long cid = p.course(course);
+                if (cid == null) throw new IllegalArgumentException("unknown course " + course);
+                if (!p.enroll(uid, cid)) throw new Duplicate(email + " in " + course);
+                s.save(new Enrollment(s.load(User.class, uid), s.load(Course.class, cid)));
+            }
+        }
+    }
+
+    private void inTx(Consumer<Session> work) {
+        try (Session s = sf.openSession()) {
+            s.setJdbcBatchSize(batchSize);
+            s.setHibernateFlushMode(FlushMode.COMMIT);
+            s.setCacheMode(CacheMode.IGNORE);
+            Transaction tx = s.beginTransaction();
+            try {
+                work.accept(s);
+                tx.commit();
+            } catch (RuntimeException e) {
+                if (tx.isActive()) tx.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static String rootMessage(Throwable t) {
+        while (t.getCause() != null) t = t.getCause();
+        return t.getMessage() == null ? t.getClass().getSimpleName() : t.getMessage();
+    }
+
+    /* ======== In-memory lookups (loaded once per import) ======== */
+    private final class Lookups {
+        final Map<String, Long> categories = new HashMap<>(), users = new HashMap<>(), courses = new HashMap<>();
+        final Map<Long, LongHashSet> enrolled = new HashMap<>(); // user id -> course ids
+
+        Lookups(Kind kind) {
+            try (Session s = sf.openSession()) {
+                s.setDefaultReadOnly(true);
+                if (kind == Kind.COURSES)
+                    for (Object[] r : s.createQuery("select c.id, c.nameNormalized from Category c", Object[].class).list())
+                        categories.put((String) r[1], (Long) r[0]);
+                if (kind != Kind.COURSES)
+                    for (Object[] r : s.createQuery("select u.id, u.emailNormalized from User u", Object[].class).list())
+                        users.put((String) r[1], (Long) r[0]);
+                if (kind == Kind.ENROLLMENTS)
+                    for (Object[] r : s.createQuery("select c.id, c.name from Course c order by c.id desc", Object[].class).list())
+                        courses.put(((String) r[1]).toLowerCase(Locale.ROOT), (Long) r[0]); // lowest id wins on duplicate names
+                if (kind == Kind.ENROLLMENTS) {
+                    ScrollableResults rows = s.createQuery("select e.user.id, e.course.id from Enrollment e")
+                            .setFetchSize(1000).scroll(ScrollMode.FORWARD_ONLY);
+                    try {
+                        while (rows.next()) add(enrolled, (Long) rows.get(0), (Long) rows.get(1));
+                    } finally {
+                        rows.close();
+                    }
+                }
+            }
+        }
+
+        Pending begin() { return new Pending(); }
+
+        private boolean add(Map<Long, LongHashSet> pairs, long userId, long courseId) {
+            return pairs.computeIfAbsent(userId, k -> new LongHashSet()).add(courseId);
+        }
+
+        /** Keys created by an uncommitted chunk; merged into the lookups only when the chunk commits. */
+        final class Pending {
+            final Map<String, Long> newCategories = new HashMap<>(), newUsers = new HashMap<>();
+            final Map<Long, LongHashSet> newEnrollments = new HashMap<>();
+            final List<long[]> newPairs = new ArrayList<>();
+
+            Long category(String name) {
+                String k = Category.normalizeName(name);
+                Long id = newCategories.get(k);
+                return id != null ? id : categories.get(k);
+            }
+            Long user(String email) {
+                Long id = newUsers.get(email);
+                return id != null ? id : users.get(email);
+            }
+            Long course(String idOrName) {
+                if (idOrName.chars().allMatch(Character::isDigit)) return Long.valueOf(idOrName);
+                return courses.get(idOrName.toLowerCase(Locale.ROOT));
+            }
+            void newCategory(String name, Long id) { newCategories.put(Category.normalizeName(name), id); }
+            void newUser(String email, Long id) { newUsers.put(email, id); }
+            /** False if the user is already enrolled in the course, or the chunk already enrolls them. */
+            boolean enroll(long userId, long courseId) {
+                LongHashSet known = enrolled.get(userId);
+                if (known != null && known.contains(courseId) || !add(newEnrollments, userId, courseId)) return false;
+                newPairs.add(new long[]{ userId, courseId });
+                return true;
+            }
+
+            void commit() {
+                categories.putAll(newCategories);
+                users.putAll(newUsers);
+                for (long[] e : newPairs) add(enrolled, e[0], e[1]);
+            }
+        }
+    }
+
+    /* ======== Command line: CatalogImporter <courses|users|enrollments> <file> [chunkSize] ======== */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: CatalogImporter <courses|users|enrollments> <file.csv|file.jsonl> [chunkSize]");
+            return;
+        }
+        Kind kind = Kind.valueOf(args[0].toUpperCase(Locale.ROOT));
+        CatalogImporter importer = new CatalogImporter(new LearnSphereService())
+                .progress(p -> System.out.println("  ... " + p));
+        if (args.length > 2) importer.chunkSize(Integer.parseInt(args[2]));
+        Report report = importer.importFile(kind, Paths.get(args[1]));
+        System.out.println(report);
+        report.getErrors().forEach(e -> System.out.println("  " + e));
+        HibernateUtil.getSessionFactory().close();
+    }
+}
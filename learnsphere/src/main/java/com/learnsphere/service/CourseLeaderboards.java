@@ -0,0 +1,297 @@
+package com.learnsphere.service;
+
+import com.learnsphere.dto.LeaderboardMetric;
+import com.learnsphere.dto.RankedCourse;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+
+/**
+ * Top-N course rankings, overall and per category, for every {@link LeaderboardMetric}.
+ * <p>
+ * Each board is a skip list ordered by score, so a top-N read walks the first N entries without locking or
+ * sorting; writers (serialized on this object) move a course by removing its old entry and adding the new one.
+ * The rating board uses the Bayesian average {@code (C*m + sum) / (C + n)} with prior weight {@code C} and the
+ * catalog-wide mean {@code m} fixed when the boards are built. The trending board sums {@code exp((t - t0) / tau)}
+ * over enrollment times {@code t}; since every course decays at the same rate, the stored sums never need
+ * touching as time passes and are only scaled to "now" when read.
+ * <p>
+ * Updates carry the {@link ScanEpochs#begin} token taken before their transaction. One that may already be counted
+ * by the last rebuild or recount of its course only marks the course, and {@link #recount} reloads it before reads.
+ */
+class CourseLeaderboards {
+    /** Pseudo category id of the overall boards (generated ids start at 1). */
+    private static final long OVERALL = 0L;
+    private static final long[] NONE = new long[0];
+    private static final LeaderboardMetric[] METRICS = LeaderboardMetric.values();
+    private static final double MAX_EXPONENT = 300; // rebase t0 long before exp() overflows
+
+    /** Receives the rows of a rebuild; the service feeds it from a few grouped queries and one streamed scan. */
+    interface Loader {
+        void course(long courseId, Long categoryId);
+        void enrollments(long courseId, long count);
+        void ratings(long courseId, long count, long sum);
+        void enrolledAt(long courseId, long epochMillis);
+    }
+
+    private static final class Ranked implements Comparable<Ranked> {
+        final long courseId;
+        final double score;
+        Ranked(long courseId, double score) { this.courseId = courseId; this.score = score; }
+        @Override public int compareTo(Ranked o) {
+            int c = Double.compare(o.score, score); // descending score, then ascending id
+            return c != 0 ? c : Long.compare(courseId, o.courseId);
+        }
+    }
+
+    private static final class Stat {
+        long enrollments, ratingCount, ratingSum;
+        double trend;
+        long[] categories = NONE;
+        final Ranked[] ranked = new Ranked[METRICS.length];
+    }
+
+    private final double priorWeight;
+    private final double tauMillis;
+    private final Map<Long, Stat> stats = new HashMap<>(); // guarded by this
+    private final Set<Long> stale = new HashSet<>();       // guarded by this
+    private final ScanEpochs epochs = new ScanEpochs();    // guarded by this
+    private final Map<LeaderboardMetric, Map<Long, ConcurrentSkipListSet<Ranked>>> boards = new EnumMap<>(LeaderboardMetric.class);
+    private double meanRating;
+    private volatile long t0;
+    private volatile boolean loaded;
+
+    CourseLeaderboards(double priorWeight, double tauDays) {
+        this.priorWeight = priorWeight;
+        this.tauMillis = tauDays * 86_400_000d;
+        for (LeaderboardMetric m : METRICS) boards.put(m, new ConcurrentHashMap<>());
+    }
+
+    boolean isLoaded() { return loaded; }
+
+    void invalidate() { loaded = false; }
+
+    /** Enrollments older than this contribute less than 1e-4 to the trending score and need not be loaded. */
+    long trendHorizonMillis() { return (long) (9.3 * tauMillis); }
+
+    synchronized void rebuild(Consumer<Loader> loader) {
+        stats.clear();
+        stale.clear();
+        for (Map<Long, ConcurrentSkipListSet<Ranked>> b : boards.values()) b.clear();
+        t0 = System.currentTimeMillis();
+        long[] totals = new long[2];
+        loader.accept(new Loader() {
+            @Override public void course(long courseId, Long categoryId) {
+                Stat st = stat(courseId);
+                if (categoryId != null) st.categories = append(st.categories, categoryId);
+            }
+            @Override public void enrollments(long courseId, long count) { stat(courseId).enrollments = count; }
+            @Override public void ratings(long courseId, long count, long sum) {
+                Stat st = stat(courseId);
+                st.ratingCount = count;
+                st.ratingSum = sum;
+                totals[0] += count;
+                totals[1] += sum;
+            }
+            @Override public void enrolledAt(long courseId, long epochMillis) { stat(courseId).trend += decay(epochMillis); }
+        });
+        meanRating = totals[0] == 0 ? 5.0 : (double) totals[1] / totals[0];
+        for (Map.Entry<Long, Stat> e : stats.entrySet()) {
+            for (LeaderboardMetric m : METRICS) rank(e.getKey(), e.getValue(), m);
+        }
+        epochs.rebuilt();
+        loaded = true;
+    }
+
+    /**
+     * Reloads the enrollment and review totals of {@code courseIds} (categories are kept) from a scan that began at
+     * {@code token}; the loader's {@code course} rows are ignored.
+     */
+    synchronized void recount(long token, Collection<Long> courseIds, Consumer<Loader> loader) {
+        if (!loaded) return;
+        Map<Long, Stat> fresh = new HashMap<>();
+        for (Long id : courseIds) fresh.put(id, new Stat());
+        loader.accept(new Loader() {
+            @Override public void course(long courseId, Long categoryId) { }
+            @Override public void enrollments(long courseId, long count) { fresh.get(courseId).enrollments = count; }
+            @Override public void ratings(long courseId, long count, long sum) {
+                Stat st = fresh.get(courseId);
+                st.ratingCount = count;
+                st.ratingSum = sum;
+            }
+            @Override public void enrolledAt(long courseId, long epochMillis) { fresh.get(courseId).trend += decay(epochMillis); }
+        });
+        for (Map.Entry<Long, Stat> e : fresh.entrySet()) {
+            long id = e.getKey();
+            if (epochs.recounted(token, id)) stale.remove(id);
+            Stat st = stats.get(id);
+            if (st == null) continue; // removed meanwhile
+            st.enrollments = e.getValue().enrollments;
+            st.ratingCount = e.getValue().ratingCount;
+            st.ratingSum = e.getValue().ratingSum;
+            st.trend = e.getValue().trend;
+            for (LeaderboardMetric m : METRICS) rank(id, st, m);
+        }
+    }
+
+    /** Marks a course whose totals changed in a way the boards cannot follow; see {@link #recount}. */
+    synchronized void markStale(long courseId) {
+        if (!loaded) return;
+        epochs.touched(courseId);
+        stale.add(courseId);
+    }
+
+    synchronized List<Long> staleCourses() { return stale.isEmpty() ? Collections.emptyList() : new ArrayList<>(stale); }
+
+    private Stat stat(long courseId) { return stats.computeIfAbsent(courseId, k -> new Stat()); }
+
+    private double decay(long epochMillis) { return Math.exp((epochMillis - t0) / tauMillis); }
+
+    /* ======== Maintenance (no-ops until loaded) ======== */
+    synchronized void courseAdded(long courseId, Collection<Long> categoryIds) {
+        if (!loaded) return;
+        Stat st = stat(courseId);
+        for (Long cat : categoryIds) st.categories = append(st.categories, cat);
+        for (LeaderboardMetric m : METRICS) rank(courseId, st, m);
+    }
+
+    synchronized void courseRemoved(long courseId) {
+        if (!loaded) return;
+        stale.remove(courseId);
+        epochs.forget(courseId);
+        Stat st = stats.remove(courseId);
+        if (st == null) return;
+        for (LeaderboardMetric m : METRICS) place(courseId, st, m, null);
+    }
+
+    synchronized void categoryRemoved(long categoryId) {
+        if (!loaded) return;
+        for (Map<Long, ConcurrentSkipListSet<Ranked>> b : boards.values()) b.remove(categoryId);
+        for (Stat st : stats.values()) {
+            for (int i = 0; i < st.categories.length; i++) {
+                if (st.categories[i] != categoryId) continue;
+                long[] rest = new long[st.categories.length - 1];
+                System.arraycopy(st.categories, 0, rest, 0, i);
+                System.arraycopy(st.categories, i + 1, rest, i, rest.length - i);
+                st.categories = rest;
+                break;
+            }
+        }
+    }
+
+    synchronized void enrolled(long token, long courseId, long epochMillis) {
+        if (!loaded) return;
+        if (!epochs.applies(token, courseId)) { stale.add(courseId); return; }
+        if ((epochMillis - t0) / tauMillis > MAX_EXPONENT) rebase(epochMillis);
+        Stat st = stat(courseId);
+        st.enrollments++;
+        st.trend += decay(epochMillis);
+        rank(courseId, st, LeaderboardMetric.ENROLLMENTS);
+        rank(courseId, st, LeaderboardMetric.TRENDING);
+    }
+
+    synchronized void unenrolled(long token, long courseId, long epochMillis) {
+        if (!loaded) return;
+        if (!epochs.applies(token, courseId)) { stale.add(courseId); return; }
+        Stat st = stats.get(courseId);
+        if (st == null) return;
+        st.enrollments = Math.max(0, st.enrollments - 1);
+        st.trend = Math.max(0, st.trend - decay(epochMillis));
+        rank(courseId, st, LeaderboardMetric.ENROLLMENTS);
+        rank(courseId, st, LeaderboardMetric.TRENDING);
+    }
+
+    /** A new review ({@code oldRating == null}) or a changed rating on an existing one. */
+    synchronized void reviewed(long token, long courseId, Integer oldRating, int newRating) {
+        if (!loaded) return;
+        if (!epochs.applies(token, courseId)) { stale.add(courseId); return; }
+        Stat st = stat(courseId);
+        if (oldRating == null) st.ratingCount++;
+        else st.ratingSum -= oldRating;
+        st.ratingSum += newRating;
+        rank(courseId, st, LeaderboardMetric.RATING);
+    }
+
+    synchronized void reviewRemoved(long token, long courseId, int rating) {
+        if (!loaded) return;
+        if (!epochs.applies(token, courseId)) { stale.add(courseId); return; }
+        Stat st = stats.get(courseId);
+        if (st == null || st.ratingCount == 0) return;
+        st.ratingCount--;
+        st.ratingSum -= rating;
+        rank(courseId, st, LeaderboardMetric.RATING);
+    }
+
+    /* ======== Queries ======== */
+    /** Best {@code n} courses by {@code metric} in the category, or overall when {@code categoryId} is null. */
+    List<RankedCourse> top(LeaderboardMetric metric, Long categoryId, int n) {
+        ConcurrentSkipListSet<Ranked> board = boards.get(metric).get(categoryId == null ? OVERALL : categoryId);
+        if (board == null || n <= 0) return Collections.emptyList();
+        double scale = metric == LeaderboardMetric.TRENDING ? decay(System.currentTimeMillis()) : 1.0;
+        List<RankedCourse> out = new ArrayList<>(Math.min(n, 64));
+        Set<Long> seen = new HashSet<>();
+        // unlocked read: a course being moved may show up twice for an instant, keep its first (best) entry
+        for (Ranked r : board) {
+            if (!seen.add(r.courseId)) continue;
+            out.add(new RankedCourse(r.courseId, r.score / scale));
+            if (out.size() == n) break;
+        }
+        return out;
+    }
+
+    /* ======== Internals ======== */
+    private double score(Stat st, LeaderboardMetric m) {
+        switch (m) {
+            case ENROLLMENTS: return st.enrollments;
+            case RATING: return st.ratingCount == 0 ? Double.NaN
+                    : (priorWeight * meanRating + st.ratingSum) / (priorWeight + st.ratingCount);
+            default: return st.trend < 1e-12 ? Double.NaN : st.trend;
+        }
+    }
+
+    /** Moves the course to its current score on every board of {@code m} it belongs to (NaN: not ranked). */
+    private void rank(long courseId, Stat st, LeaderboardMetric m) {
+        double s = score(st, m);
+        Ranked old = st.ranked[m.ordinal()];
+        if (old != null && old.score == s) return;
+        place(courseId, st, m, Double.isNaN(s) ? null : new Ranked(courseId, s));
+    }
+
+    private void place(long courseId, Stat st, LeaderboardMetric m, Ranked next) {
+        Ranked old = st.ranked[m.ordinal()];
+        Map<Long, ConcurrentSkipListSet<Ranked>> byCategory = boards.get(m);
+        // add before remove so readers never miss the course entirely
+        if (next != null) {
+            byCategory.computeIfAbsent(OVERALL, k -> new ConcurrentSkipListSet<>()).add(next);
+            for (long cat : st.categories) byCategory.computeIfAbsent(cat, k -> new ConcurrentSkipListSet<>()).add(next);
+        }
+        if (old != null) {
+            ConcurrentSkipListSet<Ranked> all = byCategory.get(OVERALL);
+            if (all != null) all.remove(old);
+            for (long cat : st.categories) {
+                ConcurrentSkipListSet<Ranked> b = byCategory.get(cat);
+                if (b != null) b.remove(old);
+            }
+        }
+        st.ranked[m.ordinal()] = next;
+    }
+
+    /** Moves the time origin to {@code now}, rescaling every trending score (rare: once per ~300 tau). */
+    private void rebase(long now) {
+        double f = Math.exp(-(now - t0) / tauMillis);
+        t0 = now;
+        for (Map.Entry<Long, Stat> e : stats.entrySet()) {
+            e.getValue().trend *= f;
+            rank(e.getKey(), e.getValue(), LeaderboardMetric.TRENDING);
+        }
+    }
+
+    private static long[] append(long[] a, long v) {
+        for (long x : a) if (x == v) return a;
+        long[] b = Arrays.copyOf(a, a.length + 1);
+        b[a.length] = v;
+        return b;
+    }
+}
@@ -0,0 +1,188 @@
+package com.learnsphere.service;
+
+import com.learnsphere.dto.Recommendation;
+import com.learnsphere.util.LongIntHashMap;
+import com.learnsphere.util.LongObjectHashMap;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongToDoubleFunction;
+
+/**
+ * "Users who took this also took": a sparse, symmetric course x course co-enrollment matrix
+ * (course id -> neighbour course id -> number of users enrolled in both) plus each user's sorted course ids,
+ * all in primitive-keyed maps. Built from one streamed pass over the enrollments, then kept current
+ * as enrollments are added or users and courses deleted.
+ */
+class CourseRecommender {
+    /** Receives {@code (userId, courseId)} enrollment pairs, ordered by user id. */
+    @FunctionalInterface
+    interface EnrollmentSink { void accept(long userId, long courseId); }
+
+    private static final long[] NONE = new long[0];
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private LongObjectHashMap<LongIntHashMap> coCounts = new LongObjectHashMap<>();
+    private LongObjectHashMap<long[]> coursesByUser = new LongObjectHashMap<>();
+    private volatile boolean loaded;
+
+    boolean isLoaded() { return loaded; }
+
+    /** Replaces the matrix; {@code scan} streams every enrollment into the sink, grouped by user. */
+    void rebuild(Consumer<EnrollmentSink> scan) {
+        lock.writeLock().lock();
+        try {
+            coCounts = new LongObjectHashMap<>();
+            coursesByUser = new LongObjectHashMap<>();
+            long[] user = { Long.MIN_VALUE };
+            long[][] basket = { new long[16] };
+            int[] n = { 0 };
+            scan.accept((userId, courseId) -> {
+                if (userId != user[0]) {
+                    flushBasket(user[0], basket[0], n[0]);
+                    user[0] = userId;
+                    n[0] = 0;
+                }
+                if (n[0] == basket[0].length) basket[0] = Arrays.copyOf(basket[0], n[0] * 2);
+                basket[0][n[0]++] = courseId;
+            });
+            flushBasket(user[0], basket[0], n[0]);
+            loaded = true;
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    private void flushBasket(long userId, long[] basket, int n) {
+        if (n == 0) return;
+        long[] courses = Arrays.copyOf(basket, n);
+        Arrays.sort(courses);
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) pair(courses[i], courses[j], 1);
+        }
+        coursesByUser.put(userId, courses);
+    }
+
+    private void pair(long a, long b, int delta) {
+        if (a == b) return;
+        bump(a, b, delta);
+        bump(b, a, delta);
+    }
+
+    private void bump(long from, long to, int delta) {
+        LongIntHashMap row = coCounts.computeIfAbsent(from, k -> new LongIntHashMap());
+        row.addTo(to, delta);
+        if (row.isEmpty()) coCounts.remove(from);
+    }
+
+    void invalidate() { loaded = false; }
+
+    /* ======== Maintenance (no-ops until loaded) ======== */
+    /** Records a newly created enrollment; pairs it with every course the user already takes. */
+    void addEnrollment(long userId, long courseId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            long[] courses = coursesByUser.get(userId);
+            if (courses == null) courses = NONE;
+            int at = Arrays.binarySearch(courses, courseId);
+            if (at >= 0) return;
+            for (long other : courses) pair(other, courseId, 1);
+            int ins = -at - 1;
+            long[] grown = new long[courses.length + 1];
+            System.arraycopy(courses, 0, grown, 0, ins);
+            grown[ins] = courseId;
+            System.arraycopy(courses, ins, grown, ins + 1, courses.length - ins);
+            coursesByUser.put(userId, grown);
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /** Forgets a deleted user's enrollments (they are cascaded away with the user). */
+    void removeUser(long userId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            long[] courses = coursesByUser.remove(userId);
+            if (courses == null) return;
+            for (int i = 0; i < courses.length; i++) {
+                for (int j = i + 1; j < courses.length; j++) pair(courses[i], courses[j], -1);
+            }
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /** Drops a deleted course from the matrix and from every user's course list. */
+    void removeCourse(long courseId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            LongIntHashMap row = coCounts.remove(courseId);
+            if (row != null) row.forEach((other, count) -> bump(other, courseId, -count));
+            List<long[]> updates = new ArrayList<>();
+            long[] owners = new long[coursesByUser.size()];
+            int[] n = { 0 };
+            coursesByUser.forEach((userId, courses) -> {
+                int at = Arrays.binarySearch(courses, courseId);
+                if (at < 0) return;
+                long[] shrunk = new long[courses.length - 1];
+                System.arraycopy(courses, 0, shrunk, 0, at);
+                System.arraycopy(courses, at + 1, shrunk, at, shrunk.length - at);
+                owners[n[0]++] = userId;
+                updates.add(shrunk);
+            });
+            for (int i = 0; i < n[0]; i++) {
+                if (updates.get(i).length == 0) coursesByUser.remove(owners[i]);
+                else coursesByUser.put(owners[i], updates.get(i));
+            }
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /* ======== Queries ======== */
+    /** Top {@code k} courses co-enrolled with {@code courseId}; {@code weight} (may be null) scales each count. */
+    List<Recommendation> forCourse(long courseId, int k, LongToDoubleFunction weight) {
+        lock.readLock().lock();
+        try {
+            LongIntHashMap row = coCounts.get(courseId);
+            return row == null ? Collections.emptyList() : topK(row, k, weight);
+        } finally { lock.readLock().unlock(); }
+    }
+
+    /**
+     * Top {@code k} courses the user is not enrolled in, scored by co-enrollment summed over all of the
+     * user's courses; {@code weight} (may be null) scales each total.
+     */
+    List<Recommendation> forUser(long userId, int k, LongToDoubleFunction weight) {
+        lock.readLock().lock();
+        try {
+            long[] taken = coursesByUser.get(userId);
+            if (taken == null) return Collections.emptyList();
+            LongIntHashMap scores = new LongIntHashMap(64);
+            for (long c : taken) {
+                LongIntHashMap row = coCounts.get(c);
+                if (row != null) row.forEach((other, count) -> {
+                    if (Arrays.binarySearch(taken, other) < 0) scores.addTo(other, count);
+                });
+            }
+            return topK(scores, k, weight);
+        } finally { lock.readLock().unlock(); }
+    }
+
+    /** Bounded min-heap selection: O(n log k) with ties broken by lower course id. */
+    private static List<Recommendation> topK(LongIntHashMap candidates, int k, LongToDoubleFunction weight) {
+        if (k <= 0) return Collections.emptyList();
+        Comparator<Recommendation> order = Comparator.comparingDouble(Recommendation::getScore)
+                .thenComparing(Recommendation::getCourseId, Comparator.reverseOrder());
+        PriorityQueue<Recommendation> heap = new PriorityQueue<>(k + 1, order);
+        candidates.forEach((courseId, count) -> {
+            double score = weight == null ? count : count * weight.applyAsDouble(courseId);
+            if (heap.size() == k) {
+                Recommendation worst = heap.peek();
+                if (score < worst.getScore() || (score == worst.getScore() && courseId > worst.getCourseId())) return;
+            }
+            heap.add(new Recommendation(courseId, count, score));
+            if (heap.size() > k) heap.poll();
+        });
+        List<Recommendation> out = new ArrayList<>(heap);
+        out.sort(order.reversed());
+        return out;
+    }
+}
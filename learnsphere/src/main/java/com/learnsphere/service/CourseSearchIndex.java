@@ -0,0 +1,249 @@
+package com.learnsphere.service;
+
+import com.learnsphere.entity.Category;
+import com.learnsphere.entity.Course;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * In-memory inverted index over course names, instructors and category names.
+ * Terms are lower-cased words; a trigram index over the term dictionary resolves
+ * substring queries (the old {@code like '%key%'}) without scanning every course.
+ */
+class CourseSearchIndex {
+    private static final int NAME = 1, CATEGORY = 2, INSTRUCTOR = 4;
+    private static final int GRAM = 3;
+
+    private static final class Doc {
+        Course course;
+        String name, instructor;
+        long version; // of the last update applied; 0 when indexed from a rebuild or new
+        final Map<Long, String> categories = new HashMap<>(); // category id -> name
+        final Map<String, Integer> terms = new HashMap<>();    // term -> field mask
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Doc> docs = new HashMap<>();
+    private final Map<String, Map<Long, Integer>> postings = new HashMap<>(); // term -> (course id -> mask)
+    private final Map<String, Set<String>> grams = new HashMap<>();           // trigram -> terms
+    private final Map<Long, Set<Long>> coursesByCategory = new HashMap<>();
+    private volatile boolean loaded;
+
+    boolean isLoaded() { return loaded; }
+
+    /** Replaces the whole index; the loader runs under the write lock so no concurrent update is lost. */
+    void rebuild(Supplier<Collection<Course>> loader) {
+        lock.writeLock().lock();
+        try {
+            docs.clear(); postings.clear(); grams.clear(); coursesByCategory.clear();
+            for (Course c : loader.get()) putLocked(c, c.getCategories());
+            loaded = true;
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /** Marks the index stale; the next search rebuilds it. */
+    void invalidate() { loaded = false; }
+
+    /* ======== Maintenance (no-ops until loaded) ======== */
+    void put(Course course, Collection<Category> categories) {
+        lock.writeLock().lock();
+        try { if (loaded) putLocked(course, categories); }
+        finally { lock.writeLock().unlock(); }
+    }
+
+    /**
+     * Re-indexes name/instructor of an existing course, keeping its categories. The edited fields are copied onto
+     * the indexed instance, whose categories were fetched with it; {@code course} itself may have a lazy,
+     * detached category collection. Updates arrive after their commit, so one older than the last applied
+     * ({@code version} is taken under the course's row lock) is ignored.
+     */
+    void update(Course course, long version) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            Doc d = docs.get(course.getId());
+            if (d == null || d.version > version) return;
+            d.version = version;
+            unindex(course.getId(), d);
+            d.course.setName(course.getName());
+            d.course.setInstructor(course.getInstructor());
+            d.course.setDurationHours(course.getDurationHours());
+            d.name = course.getName();
+            d.instructor = course.getInstructor();
+            index(course.getId(), d);
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    void remove(Long courseId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            Doc d = docs.remove(courseId);
+            if (d == null) return;
+            unindex(courseId, d);
+            for (Long catId : d.categories.keySet()) {
+                Set<Long> ids = coursesByCategory.get(catId);
+                if (ids != null && ids.remove(courseId) && ids.isEmpty()) coursesByCategory.remove(catId);
+            }
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    void renameCategory(Long categoryId, String newName) { retagCategory(categoryId, newName); }
+    void removeCategory(Long categoryId) { retagCategory(categoryId, null); }
+
+    private void retagCategory(Long categoryId, String newName) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            Set<Long> ids = newName == null ? coursesByCategory.remove(categoryId) : coursesByCategory.get(categoryId);
+            if (ids == null) return;
+            for (Long id : ids) {
+                Doc d = docs.get(id);
+                unindex(id, d);
+                if (newName == null) d.categories.remove(categoryId); else d.categories.put(categoryId, newName);
+                index(id, d);
+            }
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /* ======== Query ======== */
+    /**
+     * Every word of the query must occur (as a substring) in the course name, instructor or a category name.
+     * Results are ranked by field (name > category > instructor) and match quality (exact > prefix > infix),
+     * with a bonus when the whole query occurs in the course name; ties are broken by id.
+     */
+    List<Course> search(String query) {
+        String phrase = query.trim().toLowerCase(Locale.ROOT);
+        List<String> tokens = tokenize(phrase);
+        lock.readLock().lock();
+        try {
+            Map<Long, Integer> scores = null;
+            if (tokens.isEmpty()) {
+                scores = new HashMap<>();
+                for (Long id : docs.keySet()) scores.put(id, 0);
+            }
+            for (String token : tokens) {
+                Map<Long, Integer> hits = new HashMap<>();
+                for (String term : matchingTerms(token)) {
+                    int quality = term.equals(token) ? 3 : term.startsWith(token) ? 2 : 1;
+                    for (Map.Entry<Long, Integer> p : postings.get(term).entrySet()) {
+                        hits.merge(p.getKey(), quality * fieldWeight(p.getValue()), Math::max);
+                    }
+                }
+                if (scores == null) scores = hits;
+                else {
+                    Map<Long, Integer> joined = new HashMap<>();
+                    for (Map.Entry<Long, Integer> e : scores.entrySet()) {
+                        Integer s = hits.get(e.getKey());
+                        if (s != null) joined.put(e.getKey(), e.getValue() + s);
+                    }
+                    scores = joined;
+                }
+                if (scores.isEmpty()) return new ArrayList<>();
+            }
+
+            List<Map.Entry<Long, Integer>> ranked = new ArrayList<>(scores.size());
+            for (Map.Entry<Long, Integer> e : scores.entrySet()) {
+                Doc d = docs.get(e.getKey());
+                int bonus = (!phrase.isEmpty() && d.name.toLowerCase(Locale.ROOT).contains(phrase)) ? 10 : 0;
+                ranked.add(new AbstractMap.SimpleEntry<>(e.getKey(), e.getValue() + bonus));
+            }
+            ranked.sort((a, b) -> a.getValue().equals(b.getValue())
+                    ? a.getKey().compareTo(b.getKey()) : b.getValue() - a.getValue());
+            List<Course> out = new ArrayList<>(ranked.size());
+            for (Map.Entry<Long, Integer> e : ranked) out.add(docs.get(e.getKey()).course);
+            return out;
+        } finally { lock.readLock().unlock(); }
+    }
+
+    /** Indexed course by id, or null when the course is unknown (or the index is not loaded). */
+    Course get(Long courseId) {
+        lock.readLock().lock();
+        try {
+            Doc d = docs.get(courseId);
+            return d == null ? null : d.course;
+        } finally { lock.readLock().unlock(); }
+    }
+
+    private Collection<String> matchingTerms(String token) {
+        Collection<String> candidates = postings.keySet();
+        if (token.length() >= GRAM) {
+            // the rarest trigram of the token bounds the candidate terms
+            for (int i = 0; i + GRAM <= token.length(); i++) {
+                Set<String> terms = grams.get(token.substring(i, i + GRAM));
+                if (terms == null) return Collections.emptyList();
+                if (terms.size() < candidates.size()) candidates = terms;
+            }
+        }
+        List<String> out = new ArrayList<>();
+        for (String term : candidates) if (term.contains(token)) out.add(term);
+        return out;
+    }
+
+    private static int fieldWeight(int mask) {
+        if ((mask & NAME) != 0) return 3;
+        if ((mask & CATEGORY) != 0) return 2;
+        return 1;
+    }
+
+    /* ======== Internals (caller holds the write lock) ======== */
+    private void putLocked(Course course, Collection<Category> categories) {
+        Doc old = docs.get(course.getId());
+        if (old != null) unindex(course.getId(), old);
+        Doc d = new Doc();
+        d.course = course;
+        d.name = course.getName();
+        d.instructor = course.getInstructor();
+        for (Category cat : categories) {
+            d.categories.put(cat.getId(), cat.getName());
+            coursesByCategory.computeIfAbsent(cat.getId(), k -> new HashSet<>()).add(course.getId());
+        }
+        docs.put(course.getId(), d);
+        index(course.getId(), d);
+    }
+
+    private void index(Long id, Doc d) {
+        d.terms.clear();
+        for (String t : tokenize(d.name)) d.terms.merge(t, NAME, (a, b) -> a | b);
+        for (String t : tokenize(d.instructor)) d.terms.merge(t, INSTRUCTOR, (a, b) -> a | b);
+        for (String cat : d.categories.values())
+            for (String t : tokenize(cat)) d.terms.merge(t, CATEGORY, (a, b) -> a | b);
+
+        for (Map.Entry<String, Integer> e : d.terms.entrySet()) {
+            String term = e.getKey();
+            Map<Long, Integer> p = postings.get(term);
+            if (p == null) {
+                postings.put(term, p = new HashMap<>());
+                for (int i = 0; i + GRAM <= term.length(); i++)
+                    grams.computeIfAbsent(term.substring(i, i + GRAM), k -> new HashSet<>()).add(term);
+            }
+            p.put(id, e.getValue());
+        }
+    }
+
+    private void unindex(Long id, Doc d) {
+        for (String term : d.terms.keySet()) {
+            Map<Long, Integer> p = postings.get(term);
+            if (p == null) continue;
+            p.remove(id);
+            if (p.isEmpty()) {
+                postings.remove(term);
+                for (int i = 0; i + GRAM <= term.length(); i++) {
+                    String g = term.substring(i, i + GRAM);
+                    Set<String> terms = grams.get(g);
+                    if (terms != null && terms.remove(term) && terms.isEmpty()) grams.remove(g);
+                }
+            }
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        for (String t : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) if (!t.isEmpty()) out.add(t);
+        return out;
+    }
+}
@@ -0,0 +1,464 @@
+package com.learnsphere.service;
+
+import com.learnsphere.util.Config;
+import com.learnsphere.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Streams whole tables (or the rows past a watermark) to compressed, chunked, column-oriented files.
+ * <p>
+ * Rows are read over plain JDBC through a forward-only, read-only cursor with a large fetch size
+ * ({@code learnsphere.export.fetch_size}, default 5000; MySQL needs {@code useCursorFetch=true}, which the
+ * default URL sets), buffered per chunk of {@code chunkRows} rows and written through a {@link FileChannel}.
+ * Buffers are reused from chunk to chunk, so heap use depends on the chunk size, never on the table size.
+ * <p>
+ * File layout (big-endian):
+ * <pre>
+ *   "LSX1"  int headerLength  header (UTF-8 "key=value" lines: table, columns name:TYPE[?], since, compression)
+ *   chunk*  int rowCount (&gt; 0)  int rawLength  int deflatedLength  deflated column blocks
+ *   end     int 0  long totalRows  long watermark (epoch millis the dated rows are complete up to, Long.MIN_VALUE if none)
+ * </pre>
+ * Inside a chunk each column is one block: {@code varint length}, then a null bitmap for nullable columns
+ * ({@code ?}), then the values: LONG and TIMESTAMP (epoch millis) as zigzag varint deltas, INT as zigzag varint,
+ * STRING as varint length plus UTF-8. {@link #read} decodes a file back into rows.
+ * <p>
+ * Dated tables are only exported up to a horizon {@code learnsphere.export.settle_millis} (default 60000) before
+ * the export starts, and that horizon is the report's {@link Report#getWatermark()}. A row's {@code enrolledAt}/
+ * {@code createdAt} is stamped before it commits (write-behind reviews carry their submission time), so a row
+ * newer than the horizon may still be in flight; it is left to the next run rather than skipped for good.
+ * Incremental exports pass the previous watermark as {@code since} and get rows in {@code (since, horizon]},
+ * so consecutive runs neither skip nor repeat rows as long as writes commit within the settle time. Review
+ * edits keep their {@code createdAt}, so an incremental review export carries new reviews only.
+ */
+public class DataExporter {
+    public enum Table {
+        ENROLLMENTS("select id, user_id, course_id, enrolledAt from enrollments", "enrolledAt", "id"),
+        REVIEWS("select id, user_id, course_id, rating, text, createdAt from reviews", "createdAt", "id"),
+        COURSES("select id, name, instructor, durationHours from courses", null, "id"),
+        COURSE_CATEGORY("select course_id, category_id from course_category", null, "course_id, category_id");
+
+        final String select, watermarkColumn, orderBy;
+        Table(String select, String watermarkColumn, String orderBy) {
+            this.select = select; this.watermarkColumn = watermarkColumn; this.orderBy = orderBy;
+        }
+
+        public String fileName() { return name().toLowerCase(Locale.ROOT) + ".lsx"; }
+    }
+
+    enum Type { LONG, INT, TIMESTAMP, STRING }
+
+    public static final class Report {
+        private final Table table;
+        private long rows, chunks, bytes, elapsedNanos;
+        private LocalDateTime watermark;
+
+        private Report(Table table) { this.table = table; }
+
+        public Table getTable() { return table; }
+        public long getRows() { return rows; }
+        public long getChunks() { return chunks; }
+        public long getBytes() { return bytes; }
+        public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+        /** The horizon dated rows were exported up to: the {@code since} of the next incremental run. */
+        public LocalDateTime getWatermark() { return watermark; }
+
+        @Override public String toString() {
+            return String.format(Locale.US, "%s: rows=%d chunks=%d bytes=%d in %d ms (%.0f rows/s)%s", table, rows, chunks,
+                    bytes, getElapsedMillis(), elapsedNanos == 0 ? 0.0 : rows * 1e9 / elapsedNanos,
+                    watermark == null ? "" : " watermark=" + watermark);
+        }
+    }
+
+    private static final byte[] MAGIC = { 'L', 'S', 'X', '1' };
+
+    private final SessionFactory sf;
+    private int fetchSize = Config.getInt("learnsphere.export.fetch_size", 5_000);
+    private int chunkRows = 65_536;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private long settleMillis = Config.getLong("learnsphere.export.settle_millis", 60_000);
+
+    public DataExporter() { this(HibernateUtil.getSessionFactory()); }
+
+    DataExporter(SessionFactory sf) { this.sf = sf; }
+
+    /** JDBC fetch size of the export cursor. */
+    public DataExporter fetchSize(int fetchSize) { this.fetchSize = Math.max(1, fetchSize); return this; }
+    /** Rows per compressed chunk (default 65536); bounds the export's heap use. */
+    public DataExporter chunkRows(int chunkRows) { this.chunkRows = Math.max(1, chunkRows); return this; }
+    /** Deflate level 0..9 (default 6). */
+    public DataExporter level(int level) { this.level = level; return this; }
+    /** How long before the export dated rows must be, so that writes still committing are not skipped (default 60 s). */
+    public DataExporter settleMillis(long settleMillis) { this.settleMillis = Math.max(0, settleMillis); return this; }
+
+    /** Exports every table into {@code dir} ({@link Table#fileName()}); {@code since} applies to the dated tables. */
+    public Map<Table, Report> exportAll(Path dir, LocalDateTime since) throws IOException {
+        Files.createDirectories(dir);
+        Map<Table, Report> out = new EnumMap<>(Table.class);
+        LocalDateTime upTo = horizon(); // one horizon for every table
+        for (Table t : Table.values()) out.put(t, export(t, dir.resolve(t.fileName()), since, upTo));
+        return out;
+    }
+
+    /**
+     * Streams {@code table} to {@code file}, replacing it. With a non-null {@code since}, only rows whose
+     * watermark column is after it are exported (tables without one are always exported whole).
+     */
+    public Report export(Table table, Path file, LocalDateTime since) throws IOException {
+        return export(table, file, since, horizon());
+    }
+
+    private LocalDateTime horizon() { return LocalDateTime.now().minusNanos(settleMillis * 1_000_000L); }
+
+    private Report export(Table table, Path file, LocalDateTime since, LocalDateTime upTo) throws IOException {
+        Report report = new Report(table);
+        long start = System.nanoTime();
+        Path tmp = file.resolveSibling(file.getFileName() + ".part");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             Session s = sf.openSession()) {
+            Transaction tx = s.beginTransaction();
+            try {
+                s.doWork(c -> {
+                    try {
+                        stream(c, table, since, upTo, ch, report);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                tx.commit();
+            } catch (RuntimeException e) {
+                if (tx.isActive()) tx.rollback();
+                if (e instanceof UncheckedIOException) throw ((UncheckedIOException) e).getCause();
+                throw e;
+            }
+            ch.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        report.bytes = Files.size(file);
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private void stream(Connection c, Table table, LocalDateTime since, LocalDateTime upTo, FileChannel ch, Report report)
+            throws SQLException, IOException {
+        boolean dated = table.watermarkColumn != null;
+        boolean incremental = since != null && dated;
+        if (incremental && since.isAfter(upTo)) upTo = since; // run again within the settle time: nothing new yet
+        String sql = table.select + (dated ? " where " + table.watermarkColumn + " <= ?" : "")
+                + (incremental ? " and " + table.watermarkColumn + " > ?" : "") + " order by " + table.orderBy;
+        try (PreparedStatement ps = c.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(fetchSize);
+            if (dated) ps.setTimestamp(1, Timestamp.valueOf(upTo));
+            if (incremental) ps.setTimestamp(2, Timestamp.valueOf(since));
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData md = rs.getMetaData();
+                int n = md.getColumnCount();
+                Column[] cols = new Column[n];
+                for (int i = 0; i < n; i++) {
+                    cols[i] = new Column(md.getColumnLabel(i + 1), typeOf(md.getColumnType(i + 1)),
+                            md.isNullable(i + 1) != ResultSetMetaData.columnNoNulls);
+                }
+                writeHeader(ch, table, cols, since);
+
+                ChunkWriter chunk = new ChunkWriter(cols, level);
+                int rows = 0;
+                while (rs.next()) {
+                    for (int i = 0; i < n; i++) {
+                        Column col = cols[i];
+                        switch (col.type) {
+                            case LONG: { long v = rs.getLong(i + 1); col.add(rs.wasNull() ? null : v); break; }
+                            case INT: { int v = rs.getInt(i + 1); col.add(rs.wasNull() ? null : (long) v); break; }
+                            case TIMESTAMP: {
+                                Timestamp t = rs.getTimestamp(i + 1);
+                                col.add(t == null ? null : t.getTime());
+                                break;
+                            }
+                            default: col.addString(rs.getString(i + 1));
+                        }
+                    }
+                    if (++rows == chunkRows) { chunk.write(ch, rows); report.chunks++; rows = 0; }
+                    report.rows++;
+                }
+                if (rows > 0) { chunk.write(ch, rows); report.chunks++; }
+                chunk.end();
+
+                ByteBuffer end = ByteBuffer.allocate(20);
+                end.putInt(0).putLong(report.rows).putLong(dated ? Timestamp.valueOf(upTo).getTime() : Long.MIN_VALUE).flip();
+                writeFully(ch, end);
+                if (dated) report.watermark = upTo; // full precision, so the next run does not repeat sub-millisecond rows
+            }
+        }
+    }
+
+    private static Type typeOf(int sqlType) {
+        switch (sqlType) {
+            case Types.BIGINT: return Type.LONG;
+            case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT: case Types.BOOLEAN: case Types.BIT: return Type.INT;
+            case Types.TIMESTAMP: case Types.TIMESTAMP_WITH_TIMEZONE: case Types.DATE: return Type.TIMESTAMP;
+            default: return Type.STRING;
+        }
+    }
+
+    private static void writeHeader(FileChannel ch, Table table, Column[] cols, LocalDateTime since) throws IOException {
+        StringBuilder h = new StringBuilder();
+        h.append("table=").append(table.name().toLowerCase(Locale.ROOT)).append('\n');
+        h.append("columns=");
+        for (int i = 0; i < cols.length; i++) {
+            if (i > 0) h.append(',');
+            h.append(cols[i].name.toLowerCase(Locale.ROOT)).append(':').append(cols[i].type).append(cols[i].nullable ? "?" : "");
+        }
+        h.append('\n');
+        if (since != null && table.watermarkColumn != null) h.append("since=").append(since).append('\n');
+        h.append("compression=deflate\n");
+        byte[] bytes = h.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(8 + bytes.length);
+        buf.put(MAGIC).putInt(bytes.length).put(bytes).flip();
+        writeFully(ch, buf);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    /* ======== Column buffers (reused across chunks) ======== */
+    private static final class Column {
+        final String name;
+        final Type type;
+        final boolean nullable;
+        final Bytes values = new Bytes(1 << 12);
+        byte[] nulls = new byte[0];
+        int count;
+        long previous;
+
+        Column(String name, Type type, boolean nullable) { this.name = name; this.type = type; this.nullable = nullable; }
+
+        void add(Long v) {
+            if (markNull(v == null)) return;
+            if (type == Type.INT) values.zigzag(v);
+            else { values.zigzag(v - previous); previous = v; }
+        }
+
+        void addString(String v) {
+            if (markNull(v == null)) return;
+            byte[] b = v.getBytes(StandardCharsets.UTF_8);
+            values.varint(b.length);
+            values.put(b, 0, b.length);
+        }
+
+        private boolean markNull(boolean isNull) {
+            int i = count++;
+            if (!nullable) {
+                if (isNull) throw new IllegalStateException("NULL in non-nullable column " + name);
+                return false;
+            }
+            if ((i >> 3) >= nulls.length) nulls = Arrays.copyOf(nulls, Math.max(64, nulls.length * 2));
+            if (isNull) nulls[i >> 3] |= (byte) (1 << (i & 7));
+            return isNull;
+        }
+
+        void reset() {
+            values.size = 0;
+            if (nullable) Arrays.fill(nulls, 0, (count + 7) >> 3, (byte) 0);
+            count = 0;
+            previous = 0;
+        }
+    }
+
+    private static final class ChunkWriter {
+        private final Column[] cols;
+        private final Deflater deflater;
+        private final Bytes raw = new Bytes(1 << 16);
+        private byte[] out = new byte[1 << 16];
+        private final ByteBuffer head = ByteBuffer.allocate(12).order(ByteOrder.BIG_ENDIAN);
+
+        ChunkWriter(Column[] cols, int level) { this.cols = cols; this.deflater = new Deflater(level); }
+
+        void write(FileChannel ch, int rows) throws IOException {
+            raw.size = 0;
+            for (Column c : cols) {
+                int nullBytes = c.nullable ? (rows + 7) >> 3 : 0;
+                raw.varint(nullBytes + c.values.size);
+                if (nullBytes > 0) raw.put(c.nulls, 0, nullBytes);
+                raw.put(c.values.buf, 0, c.values.size);
+                c.reset();
+            }
+            deflater.reset();
+            deflater.setInput(raw.buf, 0, raw.size);
+            deflater.finish();
+            int len = 0;
+            while (!deflater.finished()) {
+                if (len == out.length) out = Arrays.copyOf(out, out.length * 2);
+                len += deflater.deflate(out, len, out.length - len);
+            }
+            head.clear();
+            head.putInt(rows).putInt(raw.size).putInt(len).flip();
+            writeFully(ch, head);
+            writeFully(ch, ByteBuffer.wrap(out, 0, len));
+        }
+
+        void end() { deflater.end(); }
+    }
+
+    /** Growable byte buffer with varint encoding. */
+    private static final class Bytes {
+        byte[] buf;
+        int size;
+
+        Bytes(int capacity) { buf = new byte[capacity]; }
+
+        void ensure(int extra) { if (size + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra)); }
+
+        void put(byte[] b, int off, int len) { ensure(len); System.arraycopy(b, off, buf, size, len); size += len; }
+
+        void varint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) { buf[size++] = (byte) ((v & 0x7F) | 0x80); v >>>= 7; }
+            buf[size++] = (byte) v;
+        }
+
+        void zigzag(long v) { varint((v << 1) ^ (v >> 63)); }
+    }
+
+    /* ======== Reading ======== */
+    /** Receives decoded rows; values are Long (LONG, INT, TIMESTAMP as epoch millis), String or null. */
+    @FunctionalInterface
+    public interface RowSink { void accept(Object[] row); }
+
+    /** Decodes an export file; returns its header entries (plus {@code rows} and {@code watermark} from the trailer). */
+    public static Map<String, String> read(Path file, RowSink sink) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer fixed = readFully(ch, 8);
+            byte[] magic = new byte[4];
+            fixed.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a LearnSphere export file: " + file);
+            String headerText = new String(readFully(ch, fixed.getInt()).array(), StandardCharsets.UTF_8);
+            Map<String, String> header = new LinkedHashMap<>();
+            for (String line : headerText.split("\n")) {
+                int eq = line.indexOf('=');
+                if (eq > 0) header.put(line.substring(0, eq), line.substring(eq + 1));
+            }
+            String[] spec = header.get("columns").split(",");
+            Type[] types = new Type[spec.length];
+            boolean[] nullable = new boolean[spec.length];
+            for (int i = 0; i < spec.length; i++) {
+                String t = spec[i].substring(spec[i].indexOf(':') + 1);
+                nullable[i] = t.endsWith("?");
+                types[i] = Type.valueOf(nullable[i] ? t.substring(0, t.length() - 1) : t);
+            }
+            Inflater inflater = new Inflater();
+            try {
+                while (true) {
+                    int rows = readFully(ch, 4).getInt();
+                    if (rows == 0) break;
+                    ByteBuffer sizes = readFully(ch, 8);
+                    int rawLen = sizes.getInt(), deflatedLen = sizes.getInt();
+                    byte[] raw = new byte[rawLen];
+                    inflater.reset();
+                    inflater.setInput(readFully(ch, deflatedLen).array());
+                    try {
+                        if (inflater.inflate(raw) != rawLen) throw new IOException("Truncated chunk in " + file);
+                    } catch (DataFormatException e) {
+                        throw new IOException("Corrupt chunk in " + file, e);
+                    }
+                    decodeChunk(ByteBuffer.wrap(raw), rows, types, nullable, sink);
+                }
+            } finally {
+                inflater.end();
+            }
+            ByteBuffer end = readFully(ch, 16);
+            header.put("rows", Long.toString(end.getLong()));
+            long watermark = end.getLong();
+            if (watermark != Long.MIN_VALUE) header.put("watermark", new Timestamp(watermark).toLocalDateTime().toString());
+            return header;
+        }
+    }
+
+    private static void decodeChunk(ByteBuffer in, int rows, Type[] types, boolean[] nullable, RowSink sink) {
+        Object[][] columns = new Object[types.length][];
+        for (int c = 0; c < types.length; c++) {
+            int blockLen = (int) readVarint(in);
+            ByteBuffer block = (ByteBuffer) in.slice().limit(blockLen);
+            in.position(in.position() + blockLen);
+            byte[] nulls = null;
+            if (nullable[c]) { nulls = new byte[(rows + 7) >> 3]; block.get(nulls); }
+            Object[] vals = columns[c] = new Object[rows];
+            long previous = 0;
+            for (int r = 0; r < rows; r++) {
+                if (nulls != null && (nulls[r >> 3] & (1 << (r & 7))) != 0) continue;
+                if (types[c] == Type.STRING) {
+                    byte[] b = new byte[(int) readVarint(block)];
+                    block.get(b);
+                    vals[r] = new String(b, StandardCharsets.UTF_8);
+                } else {
+                    long z = readVarint(block);
+                    long v = (z >>> 1) ^ -(z & 1);
+                    if (types[c] != Type.INT) v = previous += v;
+                    vals[r] = v;
+                }
+            }
+        }
+        for (int r = 0; r < rows; r++) {
+            Object[] row = new Object[types.length];
+            for (int c = 0; c < types.length; c++) row[c] = columns[c][r];
+            sink.accept(row);
+        }
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) if (ch.read(buf) < 0) throw new IOException("Unexpected end of export file");
+        buf.flip();
+        return buf;
+    }
+
+    /* ======== CLI ======== */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: DataExporter <outDir> [since, e.g. 2024-01-31T00:00:00] [chunkRows]");
+            return;
+        }
+        DataExporter exporter = new DataExporter();
+        if (args.length > 2) exporter.chunkRows(Integer.parseInt(args[2]));
+        LocalDateTime since = args.length > 1 ? LocalDateTime.parse(args[1]) : null;
+        LocalDateTime next = null;
+        for (Report r : exporter.exportAll(Paths.get(args[0]), since).values()) {
+            System.out.println(r);
+            if (r.getWatermark() != null && (next == null || r.getWatermark().isBefore(next))) next = r.getWatermark();
+        }
+        // exportAll uses one horizon, so both dated tables report the same watermark
+        if (next != null) System.out.println("Next incremental run: since " + next);
+        HibernateUtil.getSessionFactory().close();
+    }
+}
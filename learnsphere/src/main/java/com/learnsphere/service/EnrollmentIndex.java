@@ -0,0 +1,239 @@
+package com.learnsphere.service;
+
+import com.learnsphere.util.LongObjectHashMap;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Every (user, course) enrollment in both directions, for membership checks, a user's course ids and a course's
+ * enrollment count without a query. Each side is a sorted id list stored as delta varints (7 bits per byte, high
+ * bit = more follows), so ids cost one or two bytes per enrollment and per direction. 10M random enrollments over
+ * 1M users and 10k courses take about 90 MB, half of it per-user map slots and array headers.
+ * <p>
+ * A user's list is an exact-size {@code byte[]} (a handful of courses, rewritten on change). A course's list may
+ * hold many thousands of users, so it keeps spare capacity and new users, whose ids are usually the highest yet,
+ * are appended in place.
+ */
+class EnrollmentIndex {
+    private static final long[] NONE = new long[0];
+
+    /** Users of one course: {@code len} bytes of {@code data} encode {@code count} ascending ids ending at {@code last}. */
+    private static final class Postings {
+        byte[] data = new byte[8];
+        int len, count;
+        long last;
+
+        void append(long id) {
+            if (data.length - len < 10) data = Arrays.copyOf(data, Math.max(data.length * 3 / 2, len + 10));
+            len = writeVarint(data, len, id - last);
+            last = id;
+            count++;
+        }
+
+        void replace(long[] ids, int n) {
+            data = encode(ids, n);
+            len = data.length;
+            count = n;
+            last = n == 0 ? 0 : ids[n - 1];
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private LongObjectHashMap<byte[]> coursesByUser = new LongObjectHashMap<>();
+    private LongObjectHashMap<Postings> usersByCourse = new LongObjectHashMap<>();
+    private volatile boolean loaded;
+
+    boolean isLoaded() { return loaded; }
+
+    void invalidate() { loaded = false; }
+
+    /** Replaces the index; {@code scan} streams every enrollment into the sink, grouped by user in ascending order. */
+    void rebuild(Consumer<CourseRecommender.EnrollmentSink> scan) {
+        lock.writeLock().lock();
+        try {
+            coursesByUser = new LongObjectHashMap<>();
+            usersByCourse = new LongObjectHashMap<>();
+            long[] user = { Long.MIN_VALUE };
+            long[][] basket = { new long[16] };
+            int[] n = { 0 };
+            scan.accept((userId, courseId) -> {
+                if (userId != user[0]) {
+                    flushUser(user[0], basket[0], n[0]);
+                    user[0] = userId;
+                    n[0] = 0;
+                }
+                if (n[0] == basket[0].length) basket[0] = Arrays.copyOf(basket[0], n[0] * 2);
+                basket[0][n[0]++] = courseId;
+                // users arrive in ascending order, so every course list grows by appending
+                Postings p = usersByCourse.computeIfAbsent(courseId, k -> new Postings());
+                if (userId > p.last || p.count == 0) p.append(userId);
+            });
+            flushUser(user[0], basket[0], n[0]);
+            loaded = true;
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    private void flushUser(long userId, long[] courses, int n) {
+        if (n == 0) return;
+        Arrays.sort(courses, 0, n);
+        coursesByUser.put(userId, encode(courses, dedupe(courses, n)));
+    }
+
+    /* ======== Maintenance (no-ops until loaded) ======== */
+    void add(long userId, long courseId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            long[] courses = decode(coursesByUser.get(userId));
+            int at = Arrays.binarySearch(courses, courseId);
+            if (at >= 0) return;
+            coursesByUser.put(userId, encode(insert(courses, courses.length, -at - 1, courseId), courses.length + 1));
+            Postings p = usersByCourse.computeIfAbsent(courseId, k -> new Postings());
+            if (p.count == 0 || userId > p.last) {
+                p.append(userId);
+            } else {
+                long[] users = decode(p.data, p.len, p.count);
+                int ins = Arrays.binarySearch(users, userId);
+                if (ins < 0) p.replace(insert(users, users.length, -ins - 1, userId), users.length + 1);
+            }
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /** Forgets a deleted user's enrollments (they are cascaded away with the user). */
+    void removeUser(long userId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            for (long courseId : decode(coursesByUser.remove(userId))) {
+                Postings p = usersByCourse.get(courseId);
+                if (p == null) continue;
+                long[] users = decode(p.data, p.len, p.count);
+                int at = Arrays.binarySearch(users, userId);
+                if (at < 0) continue;
+                System.arraycopy(users, at + 1, users, at, users.length - at - 1);
+                if (users.length == 1) usersByCourse.remove(courseId);
+                else p.replace(users, users.length - 1);
+            }
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /** Drops a deleted course from the index and from every enrolled user's list. */
+    void removeCourse(long courseId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            Postings p = usersByCourse.remove(courseId);
+            if (p == null) return;
+            for (long userId : decode(p.data, p.len, p.count)) {
+                long[] courses = decode(coursesByUser.get(userId));
+                int at = Arrays.binarySearch(courses, courseId);
+                if (at < 0) continue;
+                System.arraycopy(courses, at + 1, courses, at, courses.length - at - 1);
+                if (courses.length == 1) coursesByUser.remove(userId);
+                else coursesByUser.put(userId, encode(courses, courses.length - 1));
+            }
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /* ======== Queries (callers load the index first) ======== */
+    boolean contains(long userId, long courseId) {
+        lock.readLock().lock();
+        try {
+            byte[] data = coursesByUser.get(userId);
+            if (data == null) return false;
+            long id = 0;
+            for (int i = 0; i < data.length; ) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[i++];
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                if ((id += delta) >= courseId) return id == courseId;
+            }
+            return false;
+        } finally { lock.readLock().unlock(); }
+    }
+
+    /** The user's course ids in ascending order; empty if none. */
+    long[] courses(long userId) {
+        lock.readLock().lock();
+        try {
+            return decode(coursesByUser.get(userId));
+        } finally { lock.readLock().unlock(); }
+    }
+
+    /** Number of users enrolled in the course. */
+    int count(long courseId) {
+        lock.readLock().lock();
+        try {
+            Postings p = usersByCourse.get(courseId);
+            return p == null ? 0 : p.count;
+        } finally { lock.readLock().unlock(); }
+    }
+
+    /* ======== Delta-varint encoding ======== */
+    static byte[] encode(long[] sorted, int n) {
+        byte[] buf = new byte[n * 10];
+        int len = 0;
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            len = writeVarint(buf, len, sorted[i] - prev);
+            prev = sorted[i];
+        }
+        return Arrays.copyOf(buf, len);
+    }
+
+    /** Decodes an exact-size list; every varint ends with a byte whose high bit is clear, which gives the count. */
+    static long[] decode(byte[] data) {
+        if (data == null) return NONE;
+        int count = 0;
+        for (byte b : data) if (b >= 0) count++;
+        return decode(data, data.length, count);
+    }
+
+    static long[] decode(byte[] data, int len, int count) {
+        long[] out = new long[count];
+        long id = 0;
+        for (int i = 0, k = 0; i < len; k++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[i++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            out[k] = id += delta;
+        }
+        return out;
+    }
+
+    private static int writeVarint(byte[] buf, int at, long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf[at++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[at++] = (byte) v;
+        return at;
+    }
+
+    private static long[] insert(long[] sorted, int n, int at, long id) {
+        long[] grown = new long[n + 1];
+        System.arraycopy(sorted, 0, grown, 0, at);
+        grown[at] = id;
+        System.arraycopy(sorted, at, grown, at + 1, n - at);
+        return grown;
+    }
+
+    private static int dedupe(long[] sorted, int n) {
+        int m = 0;
+        for (int i = 0; i < n; i++) if (m == 0 || sorted[i] != sorted[m - 1]) sorted[m++] = sorted[i];
+        return m;
+    }
+}
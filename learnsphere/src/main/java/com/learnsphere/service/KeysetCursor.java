@@ -0,0 +1,35 @@
+package com.learnsphere.service;
+
+import com.learnsphere.dto.SortKey;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/** Opaque "continue after" token for keyset pagination: the sort key, plus the last row's sort value and id. */
+final class KeysetCursor {
+    final SortKey sort;
+    final long afterId;
+    final String afterValue; // null when sorting by id
+
+    private KeysetCursor(SortKey sort, long afterId, String afterValue) {
+        this.sort = sort; this.afterId = afterId; this.afterValue = afterValue;
+    }
+
+    static String encode(SortKey sort, long afterId, String afterValue) {
+        String raw = sort.name() + "\n" + afterId + (afterValue == null ? "" : "\n" + afterValue);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Decodes a token issued for the same sort key; null token means the first page. */
+    static KeysetCursor decode(String token, SortKey expected) {
+        if (token == null || token.isEmpty()) return null;
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\n", 3);
+            SortKey sort = SortKey.valueOf(parts[0]);
+            if (sort != expected) throw new IllegalArgumentException("Cursor was issued for sort " + sort);
+            return new KeysetCursor(sort, Long.parseLong(parts[1]), parts.length > 2 ? parts[2] : null);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid page cursor: " + token, e);
+        }
+    }
+}
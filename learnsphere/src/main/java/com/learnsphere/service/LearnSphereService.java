@@ -1,58 +1,251 @@
 package com.learnsphere.service;
 
+import com.learnsphere.dto.*;
 import com.learnsphere.entity.*;
+import com.learnsphere.util.Config;
 import com.learnsphere.util.HibernateUtil;
+import com.learnsphere.util.Metrics;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.LockMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.exception.JDBCConnectionException;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.hibernate.query.Query;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
 
+import java.sql.SQLTransientConnectionException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongToDoubleFunction;
+import java.util.function.Supplier;
 
 public class LearnSphereService {
+    private final CourseSearchIndex searchIndex = new CourseSearchIndex();
+    private final RatingAggregates ratings = new RatingAggregates();
+    private final CourseRecommender recommender = new CourseRecommender();
+    private final CourseLeaderboards leaderboards = new CourseLeaderboards(
+            Config.getInt("learnsphere.leaderboard.prior_weight", 10), Config.getInt("learnsphere.leaderboard.trend_days", 7));
+    private final EnrollmentIndex enrollments = new EnrollmentIndex();
+    private final AnalyticsRollups analytics = new AnalyticsRollups();
+    private final ReviewSearchIndex reviewSearch = ReviewSearchIndex.fromConfig();
+    private final ReviewWriteBehind reviewBuffer; // null unless learnsphere.reviews.write_behind=true
+    private volatile UpsertWriter upserts;
+    // coalesced point lookups; null unless learnsphere.batch_loader.enabled=true
+    private final BatchLoader<Long, Course> courseLoader = BatchLoader.fromConfig(this::loadCourses);
+    private final BatchLoader<Long, Category> categoryLoader = BatchLoader.fromConfig(this::loadCategories);
+    private final BatchLoader<Long, User> userLoader = BatchLoader.fromConfig(this::loadUsers);
+    private final BatchLoader<String, User> emailLoader = BatchLoader.fromConfig(this::loadUsersByEmail);
+
+    public LearnSphereService() {
+        Metrics.start(); // HTTP endpoint / periodic report, when metrics are enabled
+        reviewBuffer = Config.getBoolean("learnsphere.reviews.write_behind", false)
+                ? ReviewWriteBehind.fromConfig(this::writeReviewBatch) : null;
+    }
 
     /* ======== Generic helpers ======== */
-    private <T> T tx(SessionWork<T> work) {
-        Transaction tx = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            tx = session.beginTransaction();
-            T res = work.apply(session);
-            tx.commit();
-            return res;
-        } catch (RuntimeException e) {
-            if (tx != null) tx.rollback();
-            throw e;
+    /**
+     * Runs {@code work} in its own session and transaction on the primary; {@code op} names it in {@link Metrics}.
+     * For writes: the thread's reads then stick to the primary for {@code learnsphere.replica.sticky_millis}.
+     */
+    private <T> T tx(String op, SessionWork<T> work) {
+        T res = run(op, HibernateUtil.getSessionFactory(), false, work);
+        if (stickyNanos > 0) lastWrite.set(System.nanoTime());
+        return res;
+    }
+
+    /**
+     * Runs read-only {@code work} on the primary, for reads that must see every committed write (recounts, index
+     * rebuilds); unlike {@link #tx} it leaves the thread's later reads to the replicas.
+     */
+    private <T> T primaryRead(String op, SessionWork<T> work) {
+        return run(op, HibernateUtil.getSessionFactory(), true, work);
+    }
+
+    /**
+     * Runs read-only {@code work} on a replica when {@code learnsphere.replica.urls} configures any (in turn),
+     * else on the primary; replica reads are reported as {@code op.replica}. The session is read-only with manual
+     * flush: loaded entities are not snapshotted for dirty checking and nothing is flushed. A replica that cannot
+     * be reached falls back to the primary and is left out for {@code learnsphere.replica.retry_millis}.
+     */
+    private <T> T readTx(String op, SessionWork<T> work) {
+        SessionFactory replica = replicaForRead();
+        if (replica != null) {
+            try {
+                T res = run(op + ".replica", replica, true, work);
+                if (!replicaDownUntil.isEmpty()) replicaDownUntil.remove(replica);
+                return res;
+            } catch (RuntimeException e) {
+                if (!isConnectionFailure(e)) throw e;
+                if (replicaDownUntil.put(replica, System.nanoTime() + replicaRetryNanos) == null) {
+                    System.err.println("Replica unreachable, reading the primary instead: " + e.getMessage());
+                }
+            }
+        }
+        return run(op, HibernateUtil.getSessionFactory(), true, work);
+    }
+
+    /* read-your-writes: for learnsphere.replica.sticky_millis after a write, the writing thread reads the primary */
+    private final long stickyNanos = Config.getLong("learnsphere.replica.sticky_millis", 0) * 1_000_000L;
+    private final ThreadLocal<Long> lastWrite = new ThreadLocal<>();
+    private final ThreadLocal<Boolean> pinned = new ThreadLocal<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final long replicaRetryNanos = Config.getLong("learnsphere.replica.retry_millis", 30_000) * 1_000_000L;
+    private final Map<SessionFactory, Long> replicaDownUntil = new ConcurrentHashMap<>();
+
+    /**
+     * Runs {@code reads} with every read of the calling thread on the primary, e.g. to see data just written
+     * out of band (bulk imports) regardless of replica lag.
+     */
+    public <T> T onPrimary(Supplier<T> reads) {
+        Boolean outer = pinned.get();
+        pinned.set(Boolean.TRUE);
+        try {
+            return reads.get();
+        } finally {
+            if (outer == null) pinned.remove();
+        }
+    }
+
+    /**
+     * The replica for the next read, or null for the primary (no replicas, all unreachable, pinned, or the thread
+     * wrote recently). When its retry delay has passed, one read at a time tries an unreachable replica again.
+     */
+    private SessionFactory replicaForRead() {
+        List<SessionFactory> replicas = HibernateUtil.getReplicaSessionFactories();
+        if (replicas.isEmpty() || readsPrimary()) return null;
+        for (int i = 0; i < replicas.size(); i++) {
+            SessionFactory replica = replicas.get(Math.floorMod(nextReplica.getAndIncrement(), replicas.size()));
+            Long downUntil = replicaDownUntil.get(replica);
+            if (downUntil == null) return replica;
+            long now = System.nanoTime();
+            if (now - downUntil >= 0 && replicaDownUntil.replace(replica, downUntil, now + replicaRetryNanos)) return replica;
+        }
+        return null;
+    }
+
+    /** True if this thread's reads must see the primary: pinned by {@link #onPrimary}, or it wrote recently. */
+    private boolean readsPrimary() {
+        if (pinned.get() != null) return true;
+        if (stickyNanos == 0) return false;
+        Long at = lastWrite.get();
+        return at != null && System.nanoTime() - at < stickyNanos;
+    }
+
+    /**
+     * Looks {@code key} up through {@code loader} when batching is on, else (or for a null key, or when this
+     * thread must read the primary, since the batch may be fetched from a replica) with {@code single}.
+     */
+    private <K, V> V batched(BatchLoader<K, V> loader, K key, Function<K, V> single) {
+        return loader == null || key == null || readsPrimary() ? single.apply(key) : loader.load(key);
+    }
+
+    private <T> T run(String op, SessionFactory factory, boolean readOnly, SessionWork<T> work) {
+        Metrics.Op m = Metrics.ENABLED ? Metrics.op(op) : null;
+        long start = m == null ? 0 : System.nanoTime();
+        int statements = m == null ? 0 : Metrics.statementCount();
+        try (Session session = factory.openSession()) {
+            if (readOnly) {
+                session.setDefaultReadOnly(true);
+                session.setHibernateFlushMode(FlushMode.MANUAL);
+            }
+            Transaction tx = session.beginTransaction();
+            if (m != null) m.opened(System.nanoTime() - start);
+            try {
+                T res = work.apply(session);
+                tx.commit();
+                if (m != null) m.committed(System.nanoTime() - start, Metrics.statementCount() - statements);
+                return res;
+            } catch (RuntimeException e) {
+                // roll back while the session is still open, so the original failure is what propagates
+                if (tx.isActive()) tx.rollback();
+                if (m != null) m.rolledBack(System.nanoTime() - start, Metrics.statementCount() - statements);
+                throw e;
+            }
         }
     }
     @FunctionalInterface private interface SessionWork<T> { T apply(Session s); }
 
+    /** True if the failure (or any cause) is a constraint violation, e.g. a lost race on a unique key. */
+    private static boolean isConstraintViolation(Throwable t) {
+        for (; t != null; t = t.getCause()) if (t instanceof ConstraintViolationException) return true;
+        return false;
+    }
+
+    /** True if the failure (or any cause) is a lost or refused database connection. */
+    private static boolean isConnectionFailure(Throwable t) {
+        for (; t != null; t = t.getCause()) if (t instanceof JDBCConnectionException || t instanceof SQLTransientConnectionException) return true;
+        return false;
+    }
+
+    private UpsertWriter upserts() {
+        UpsertWriter w = upserts;
+        if (w == null) upserts = w = new UpsertWriter(HibernateUtil.getSessionFactory());
+        return w;
+    }
+
+    /** Query-cache region for name lookups (see ehcache.xml). */
+    private static final String LOOKUP_REGION = "lookups";
+
     /* ======== CRUD: Category ======== */
     public Category createCategory(String name) {
-        return tx(s -> { 
+        return tx("createCategory", s -> { 
             Category c = new Category(name.trim());
             s.save(c);
             return c;
         });
     }
-    public Category getCategory(Long id) { return tx(s -> s.get(Category.class, id)); }
+    public Category getCategory(Long id) {
+        return batched(categoryLoader, id, k -> readTx("getCategory", s -> s.get(Category.class, k)));
+    }
     public Category findCategoryByName(String name) {
-        return tx(s -> (Category) s.createQuery("from Category c where lower(c.name)=:n")
-                .setParameter("n", name.toLowerCase()).uniqueResult());
+        return readTx("findCategoryByName", s -> (Category) s.createQuery("from Category c where c.nameNormalized=:n")
+                .setParameter("n", Category.normalizeName(name))
+                .setCacheable(true).setCacheRegion(LOOKUP_REGION)
+                .uniqueResult());
+    }
+    public List<Category> listCategories() {
+        return readTx("listCategories", s -> s.createQuery("from Category", Category.class).setCacheable(true).list());
     }
-    public List<Category> listCategories() { return tx(s -> s.createQuery("from Category", Category.class).list()); }
     public void updateCategory(Long id, String newName) {
-        tx(s -> { Category c = s.get(Category.class, id); if (c!=null) c.setName(newName.trim()); return null; });
+        tx("updateCategory", s -> { Category c = s.get(Category.class, id); if (c!=null) c.setName(newName.trim()); return null; });
+        searchIndex.renameCategory(id, newName.trim());
+    }
+    public void deleteCategory(Long id) {
+        tx("deleteCategory", s -> { Category c = s.get(Category.class, id); if (c!=null) s.delete(c); return null; });
+        searchIndex.removeCategory(id);
+        leaderboards.categoryRemoved(id);
+        analytics.categoryRemoved(id);
     }
-    public void deleteCategory(Long id) { tx(s -> { Category c = s.get(Category.class, id); if (c!=null) s.delete(c); return null; }); }
 
     /* ======== CRUD: Course & add course ======== */
     public Course addCourse(String name, String instructor, int durationHours, List<String> categoryNames) {
-        return tx(s -> {
+        Course created = tx("addCourse", s -> {
             Course course = new Course(name.trim(), instructor.trim(), durationHours);
             // attach categories (create if not exists)
             for (String cn : categoryNames) {
                 String normalized = cn.trim();
-                Category cat = (Category) s.createQuery("from Category c where lower(c.name)=:n")
-                        .setParameter("n", normalized.toLowerCase())
+                Category cat = (Category) s.createQuery("from Category c where c.nameNormalized=:n")
+                        .setParameter("n", Category.normalizeName(normalized))
+                        .setCacheable(true).setCacheRegion(LOOKUP_REGION)
                         .uniqueResult();
                 if (cat == null) {
                     cat = new Category(normalized);
@@ -64,28 +257,54 @@ public class LearnSphereService {
             s.save(course);
             return course;
         });
+        searchIndex.put(created, created.getCategories());
+        List<Long> categoryIds = new ArrayList<>();
+        for (Category cat : created.getCategories()) categoryIds.add(cat.getId());
+        leaderboards.courseAdded(created.getId(), categoryIds);
+        analytics.courseAdded(created.getId(), categoryIds);
+        return created;
+    }
+    /** The course, or null; with the batch loader on, its categories come initialized. */
+    public Course getCourse(Long id) {
+        return batched(courseLoader, id, k -> readTx("getCourse", s -> s.get(Course.class, k)));
+    }
+    public List<Course> listCourses() { return readTx("listCourses", s -> s.createQuery("from Course", Course.class).list()); }
+    /** True if at least one course exists; reads one id, not the table. */
+    public boolean hasCourses() {
+        return primaryRead("hasCourses", s -> !s.createQuery("select c.id from Course c", Long.class).setMaxResults(1).list().isEmpty());
     }
-    public Course getCourse(Long id) { return tx(s -> s.get(Course.class, id)); }
-    public List<Course> listCourses() { return tx(s -> s.createQuery("from Course", Course.class).list()); }
     public void updateCourse(Long id, String name, String instructor, Integer durationHours) {
-        tx(s -> {
-            Course c = s.get(Course.class, id);
+        long[] version = new long[1];
+        Course updated = tx("updateCourse", s -> {
+            // the row lock orders concurrent edits, and the version taken under it orders their index updates
+            Course c = s.get(Course.class, id, LockMode.PESSIMISTIC_WRITE);
+            version[0] = ScanEpochs.begin();
             if (c != null) {
                 if (name != null) c.setName(name.trim());
                 if (instructor != null) c.setInstructor(instructor.trim());
                 if (durationHours != null) c.setDurationHours(durationHours);
             }
-            return null;
+            return c;
         });
+        if (updated != null) searchIndex.update(updated, version[0]);
+    }
+    public void deleteCourse(Long id) {
+        tx("deleteCourse", s -> { Course c = s.get(Course.class, id); if (c!=null) s.delete(c); return null; });
+        searchIndex.remove(id);
+        ratings.dropCourse(id);
+        recommender.removeCourse(id);
+        enrollments.removeCourse(id);
+        reviewSearch.removeCourse(id);
+        leaderboards.courseRemoved(id);
+        analytics.courseRemoved(id);
     }
-    public void deleteCourse(Long id) { tx(s -> { Course c = s.get(Course.class, id); if (c!=null) s.delete(c); return null; }); }
 
     /* ======== CRUD: User & register user ======== */
     public User registerUser(String name, String email) {
-        return tx(s -> {
+        return tx("registerUser", s -> {
             // ensure unique email
-            User existing = (User) s.createQuery("from User u where lower(u.email)=:e")
-                    .setParameter("e", email.toLowerCase())
+            User existing = (User) s.createQuery("from User u where u.emailNormalized=:e")
+                    .setParameter("e", User.normalizeEmail(email))
                     .uniqueResult();
             if (existing != null) throw new RuntimeException("Email already exists: " + email);
             User u = new User(name.trim(), email.trim().toLowerCase());
@@ -93,106 +312,851 @@ public class LearnSphereService {
             return u;
         });
     }
-    public User getUser(Long id) { return tx(s -> s.get(User.class, id)); }
+    public User getUser(Long id) { return batched(userLoader, id, k -> readTx("getUser", s -> s.get(User.class, k))); }
     public User findUserByEmail(String email) {
-        return tx(s -> (User) s.createQuery("from User u where lower(u.email)=:e")
-                .setParameter("e", email.toLowerCase()).uniqueResult());
+        return batched(emailLoader, User.normalizeEmail(email), k -> readTx("findUserByEmail",
+                s -> (User) s.createQuery("from User u where u.emailNormalized=:e").setParameter("e", k).uniqueResult()));
+    }
+    public List<User> listUsers() { return readTx("listUsers", s -> s.createQuery("from User", User.class).list()); }
+    /** True if at least one user exists; reads one id, not the table. */
+    public boolean hasUsers() {
+        return primaryRead("hasUsers", s -> !s.createQuery("select u.id from User u", Long.class).setMaxResults(1).list().isEmpty());
     }
-    public List<User> listUsers() { return tx(s -> s.createQuery("from User", User.class).list()); }
     public void updateUser(Long id, String name, String email) {
-        tx(s -> { User u = s.get(User.class, id); if (u!=null) { if (name!=null) u.setName(name.trim()); if (email!=null) u.setEmail(email.trim().toLowerCase()); } return null; });
+        tx("updateUser", s -> { User u = s.get(User.class, id); if (u!=null) { if (name!=null) u.setName(name.trim()); if (email!=null) u.setEmail(email.trim().toLowerCase()); } return null; });
+    }
+    public void deleteUser(Long id) {
+        // reviews and enrollments go with the user (orphanRemoval); remember them so the aggregates stay exact
+        List<Object[]> enrolled = new ArrayList<>();
+        long token = ScanEpochs.begin();
+        long[] version = new long[1];
+        List<Object[]> removed;
+        try {
+            removed = tx("deleteUser", s -> {
+                User u = s.get(User.class, id);
+                if (u == null) return Collections.<Object[]>emptyList();
+                List<Object[]> rs = new ArrayList<>();
+                for (Review r : u.getReviews()) rs.add(new Object[]{ r.getCourse().getId(), r.getRating(), r.getCreatedAt(), r.getId() });
+                for (Enrollment e : u.getEnrollments()) enrolled.add(new Object[]{ e.getCourse().getId(), e.getEnrolledAt(), e.getId() });
+                s.delete(u);
+                s.flush(); // the deletes hold the review rows, so the version comes after any edit still in flight
+                version[0] = reviewSearch.version();
+                return rs;
+            });
+            for (Object[] r : removed) {
+                reviewSearch.remove(version[0], (Long) r[3]);
+                ratings.remove(token, (Long) r[0], (Integer) r[1]);
+                leaderboards.reviewRemoved(token, (Long) r[0], (Integer) r[1]);
+                analytics.reviewRemoved(token, (Long) r[3], (Long) r[0], epochDay((LocalDateTime) r[2]), (Integer) r[1]);
+            }
+        } finally {
+            if (version[0] != 0) reviewSearch.release(version[0]);
+        }
+        enrollments.removeUser(id);
+        for (Object[] e : enrolled) {
+            leaderboards.unenrolled(token, (Long) e[0], epochMillis((LocalDateTime) e[1]));
+            analytics.unenrolled(token, (Long) e[2], (Long) e[0], epochDay((LocalDateTime) e[1]));
+        }
+        recommender.removeUser(id);
+        analytics.userRemoved(id);
+    }
+
+    /* ======== Batched lookups (BatchLoader fetches: one session and one query per batch) ======== */
+    private Map<Long, Course> loadCourses(Set<Long> ids) {
+        return readTx("getCourse.batch", s -> keyed(s.createQuery(
+                "select distinct c from Course c left join fetch c.categories where c.id in (:ids)", Course.class)
+                .setParameterList("ids", ids).list(), Course::getId));
+    }
+    private Map<Long, Category> loadCategories(Set<Long> ids) {
+        return readTx("getCategory.batch", s -> keyed(s.createQuery("from Category c where c.id in (:ids)", Category.class)
+                .setParameterList("ids", ids).list(), Category::getId));
+    }
+    private Map<Long, User> loadUsers(Set<Long> ids) {
+        return readTx("getUser.batch", s -> keyed(s.createQuery("from User u where u.id in (:ids)", User.class)
+                .setParameterList("ids", ids).list(), User::getId));
+    }
+    /** Keyed by normalized email, as {@link #findUserByEmail} asks for it. */
+    private Map<String, User> loadUsersByEmail(Set<String> emails) {
+        return readTx("findUserByEmail.batch", s -> keyed(s.createQuery("from User u where u.emailNormalized in (:e)", User.class)
+                .setParameterList("e", emails).list(), User::getEmailNormalized));
+    }
+    private static <K, V> Map<K, V> keyed(List<V> rows, Function<V, K> key) {
+        Map<K, V> out = new HashMap<>(rows.size() * 2);
+        for (V v : rows) out.put(key.apply(v), v);
+        return out;
     }
-    public void deleteUser(Long id) { tx(s -> { User u = s.get(User.class, id); if (u!=null) s.delete(u); return null; }); }
 
     /* ======== Enrollments ======== */
     public Enrollment enrollUserInCourse(Long userId, Long courseId) {
-        return tx(s -> {
-            User u = s.get(User.class, userId);
-            Course c = s.get(Course.class, courseId);
-            if (u == null || c == null) throw new RuntimeException("User or Course not found.");
-            // check unique
-            Enrollment existing = (Enrollment) s.createQuery("from Enrollment e where e.user.id=:uid and e.course.id=:cid")
-                    .setParameter("uid", userId).setParameter("cid", courseId).uniqueResult();
-            if (existing != null) return existing;
-            Enrollment e = new Enrollment(u, c);
-            s.save(e);
-            return e;
-        });
+        // known absent: skip the lookup and insert; a concurrent enrollment is caught by the unique key below
+        boolean mayExist = enrollmentIndex().contains(userId, courseId);
+        long token = ScanEpochs.begin();
+        try {
+            boolean[] created = new boolean[1];
+            Enrollment enrollment = tx("enrollUserInCourse", s -> {
+                if (mayExist) {
+                    Enrollment existing = findEnrollment(s, userId, courseId);
+                    if (existing != null) return existing;
+                }
+                User u = s.get(User.class, userId);
+                Course c = s.get(Course.class, courseId);
+                if (u == null || c == null) throw new RuntimeException("User or Course not found.");
+                Enrollment e = new Enrollment(u, c);
+                s.save(e);
+                created[0] = true;
+                return e;
+            });
+            if (created[0]) enrolled(token, enrollment.getId(), userId, courseId, epochMillis(enrollment.getEnrolledAt()));
+            return enrollment;
+        } catch (RuntimeException e) {
+            // a concurrent call inserted the same pair between our check and insert: return its row
+            if (!isConstraintViolation(e)) throw e;
+            Enrollment winner = primaryRead("findEnrollment", s -> findEnrollment(s, userId, courseId));
+            if (winner == null) throw e;
+            return winner;
+        }
     }
+    /**
+     * Keeps the in-memory enrollment views current after a new enrollment, begun at {@code token}, commits;
+     * {@code enrollmentId} is null when the insert did not report it.
+     */
+    private void enrolled(long token, Long enrollmentId, long userId, long courseId, long epochMillis) {
+        enrollments.add(userId, courseId);
+        recommender.addEnrollment(userId, courseId);
+        leaderboards.enrolled(token, courseId, epochMillis);
+        analytics.enrolled(token, enrollmentId, userId, courseId, (int) Instant.ofEpochMilli(epochMillis).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay());
+    }
+    private static Enrollment findEnrollment(Session s, Long userId, Long courseId) {
+        return (Enrollment) s.createQuery("from Enrollment e where e.user.id=:uid and e.course.id=:cid")
+                .setParameter("uid", userId).setParameter("cid", courseId).uniqueResult();
+    }
+    /** The user's courses by id, from the enrollment index; the entities come from the second-level cache when cached. */
     public List<Course> listCoursesByUser(Long userId) {
-        return tx(s -> {
-            Query<Course> q = s.createQuery("select e.course from Enrollment e where e.user.id=:uid", Course.class);
-            q.setParameter("uid", userId);
-            return q.list();
+        long[] ids = enrollmentIndex().courses(userId);
+        if (ids.length == 0) return new ArrayList<>();
+        List<Long> boxed = new ArrayList<>(ids.length);
+        for (long id : ids) boxed.add(id);
+        return readTx("listCoursesByUser", s -> {
+            List<Course> courses = s.byMultipleIds(Course.class).multiLoad(boxed);
+            courses.removeIf(Objects::isNull); // deleted since the index was read
+            return courses;
         });
     }
 
+    /** Ids of the courses the user is enrolled in, ascending; answered from memory. */
+    public long[] listCourseIdsByUser(Long userId) { return enrollmentIndex().courses(userId); }
+
+    /** Whether the user is enrolled in the course; answered from memory. */
+    public boolean isEnrolled(Long userId, Long courseId) { return enrollmentIndex().contains(userId, courseId); }
+
+    /** Number of users enrolled in the course; answered from memory. */
+    public int countEnrollments(Long courseId) { return enrollmentIndex().count(courseId); }
+
+    /** (Re)loads the enrollment index with one streamed pass over the enrollments; call at startup. */
+    public void rebuildEnrollmentIndex() {
+        enrollments.rebuild(sink -> scanEnrollments("rebuildEnrollmentIndex", sink));
+    }
+
+    private EnrollmentIndex enrollmentIndex() {
+        if (!enrollments.isLoaded()) rebuildEnrollmentIndex();
+        return enrollments;
+    }
+
+    /* ======== High-throughput writes: native upserts, safe for many concurrent callers ======== */
+    /**
+     * Enrolls the user in one statement (no entity loads, no check-then-insert); true if a new enrollment
+     * was created, false if it already existed.
+     */
+    public boolean upsertEnrollment(Long userId, Long courseId) {
+        long token = ScanEpochs.begin();
+        boolean created = tx("upsertEnrollment", s -> upserts().enroll(s, userId, courseId));
+        if (created) enrolled(token, null, userId, courseId, System.currentTimeMillis());
+        return created;
+    }
+
+    /**
+     * Inserts or replaces the user's review in one statement, which also checks the enrollment;
+     * false (nothing written) when the user is not enrolled in the course.
+     */
+    public boolean upsertReview(Long userId, Long courseId, int rating, String text) {
+        if (rating < 0 || rating > 10) throw new IllegalArgumentException("Rating must be 0..10");
+        long[] version = new long[1];
+        try {
+            boolean accepted = tx("upsertReview", s -> {
+                boolean written = upserts().upsertReview(s, userId, courseId, rating, text);
+                version[0] = reviewSearch.version(); // the upsert holds the row until commit
+                return written;
+            });
+            if (accepted) {
+                reviewsUpserted(Collections.singleton(courseId));
+                reindexReviews(version[0], Collections.singletonList(new long[]{ userId, courseId }));
+            }
+            return accepted;
+        } finally {
+            if (version[0] != 0) reviewSearch.release(version[0]);
+        }
+    }
+
+    /** After native upserts the old ratings are unknown: those courses are recounted when next read. */
+    private void reviewsUpserted(Collection<Long> courseIds) {
+        for (Long id : courseIds) {
+            ratings.markStale(id);
+            leaderboards.markStale(id);
+            analytics.markStale(id);
+        }
+    }
+
     /* ======== Reviews ======== */
     public Review addReview(Long userId, Long courseId, int rating, String text) {
         if (rating < 0 || rating > 10) throw new IllegalArgumentException("Rating must be 0..10");
-        return tx(s -> {
-            User u = s.get(User.class, userId);
-            Course c = s.get(Course.class, courseId);
-            if (u==null || c==null) throw new RuntimeException("User or Course not found.");
-            // ensure the user is enrolled
-            Long count = (Long) s.createQuery("select count(e.id) from Enrollment e where e.user.id=:uid and e.course.id=:cid")
-                    .setParameter("uid", userId).setParameter("cid", courseId).uniqueResult();
-            if (count == 0) throw new RuntimeException("User must be enrolled to review this course.");
+        if (reviewBuffer != null) reviewBuffer.discard(userId, courseId); // a buffered older review must not win
+        try {
+            return saveReview(userId, courseId, rating, text);
+        } catch (RuntimeException e) {
+            // a concurrent first review of the same pair won the insert; retrying takes the update path
+            if (!isConstraintViolation(e)) throw e;
+            return saveReview(userId, courseId, rating, text);
+        }
+    }
+    private Review saveReview(Long userId, Long courseId, int rating, String text) {
+        Integer[] previous = new Integer[1];
+        LocalDateTime[] createdAt = new LocalDateTime[1];
+        boolean enrolled = enrollmentIndex().contains(userId, courseId); // only a "no" is re-checked in the database
+        long token = ScanEpochs.begin();
+        long[] version = new long[1];
+        try {
+            Review saved = tx("addReview", s -> {
+                User u = s.get(User.class, userId);
+                Course c = s.get(Course.class, courseId);
+                if (u==null || c==null) throw new RuntimeException("User or Course not found.");
+                // ensure the user is enrolled
+                if (!enrolled && findEnrollment(s, userId, courseId) == null)
+                    throw new RuntimeException("User must be enrolled to review this course.");
 
-            // upsert review (unique user+course)
-            Review existing = (Review) s.createQuery("from Review r where r.user.id=:uid and r.course.id=:cid")
+                // upsert review (unique user+course); the row lock keeps concurrent edits from reading the same old rating
+                Review existing = (Review) s.createQuery("from Review r where r.user.id=:uid and r.course.id=:cid")
+                        .setParameter("uid", userId).setParameter("cid", courseId)
+                        .setLockMode("r", LockMode.PESSIMISTIC_WRITE).uniqueResult();
+                // taken while the row is held, so the index sees this pair's edits in commit order
+                version[0] = reviewSearch.version();
+                if (existing != null) {
+                    previous[0] = existing.getRating();
+                    createdAt[0] = existing.getCreatedAt();
+                    existing.setRating(rating);
+                    existing.setText(text);
+                    return existing;
+                } else {
+                    Review r = new Review(u, c, rating, text);
+                    s.save(r);
+                    createdAt[0] = r.getCreatedAt();
+                    return r;
+                }
+            });
+            ratings.apply(token, courseId, previous[0], rating);
+            reviewSearch.put(version[0], saved.getId(), userId, courseId, rating, text);
+            leaderboards.reviewed(token, courseId, previous[0], rating);
+            analytics.reviewed(token, saved.getId(), courseId, epochDay(createdAt[0]), previous[0], rating);
+            return saved;
+        } finally {
+            if (version[0] != 0) reviewSearch.release(version[0]);
+        }
+    }
+
+    /* ======== Write-behind reviews (learnsphere.reviews.write_behind=true) ======== */
+    private static final int MAX_REVIEW_TEXT = 2000;
+
+    /**
+     * Accepts a review for background writing: the enrollment is checked in memory and the call returns without
+     * touching the database (with a journal, once the review is fsynced). Repeated submissions for the same course
+     * are coalesced. Without write-behind this is {@link #addReview}. See {@link #findReview} to read it back.
+     */
+    public void submitReview(Long userId, Long courseId, int rating, String text) {
+        if (rating < 0 || rating > 10) throw new IllegalArgumentException("Rating must be 0..10");
+        if (reviewBuffer == null) { addReview(userId, courseId, rating, text); return; }
+        if (text != null && text.length() > MAX_REVIEW_TEXT)
+            throw new IllegalArgumentException("Review text is limited to " + MAX_REVIEW_TEXT + " characters");
+        if (!isEnrolled(userId, courseId)) throw new RuntimeException("User must be enrolled to review this course.");
+        reviewBuffer.submit(userId, courseId, rating, text);
+    }
+
+    /**
+     * The user's review of the course, including a submission still waiting in the write-behind buffer
+     * (returned as a detached, unsaved copy); null if there is none.
+     */
+    public Review findReview(Long userId, Long courseId) {
+        ReviewWriteBehind.Pending p = reviewBuffer == null ? null : reviewBuffer.pendingFor(userId, courseId);
+        return readTx("findReview", s -> {
+            Review r = (Review) s.createQuery("from Review r where r.user.id=:uid and r.course.id=:cid")
                     .setParameter("uid", userId).setParameter("cid", courseId).uniqueResult();
-            if (existing != null) {
-                existing.setRating(rating);
-                existing.setText(text);
-                return existing;
-            } else {
-                Review r = new Review(u, c, rating, text);
-                s.save(r);
-                return r;
-            }
+            if (p == null) return r;
+            if (r == null) return new Review(s.get(User.class, userId), s.get(Course.class, courseId), p.rating, p.text);
+            s.detach(r);
+            r.setRating(p.rating);
+            r.setText(p.text);
+            return r;
         });
     }
 
+    /** Blocks until every submitted review is in the database; no-op without write-behind. */
+    public void flushReviews() {
+        if (reviewBuffer != null) reviewBuffer.flush();
+    }
+
+    /** Submitted reviews not yet written. */
+    public int pendingReviews() { return reviewBuffer == null ? 0 : reviewBuffer.size(); }
+
+    private void writeReviewBatch(List<ReviewWriteBehind.Pending> batch) {
+        long[] version = new long[1];
+        try {
+            tx("flushReviews", s -> {
+                upserts().upsertReviews(s, batch);
+                version[0] = reviewSearch.version();
+                return null;
+            });
+            Set<Long> courses = new LinkedHashSet<>();
+            List<long[]> pairs = new ArrayList<>(batch.size());
+            for (ReviewWriteBehind.Pending p : batch) {
+                courses.add(p.courseId);
+                pairs.add(new long[]{ p.userId, p.courseId });
+            }
+            reviewsUpserted(courses);
+            reindexReviews(version[0], pairs);
+        } finally {
+            if (version[0] != 0) reviewSearch.release(version[0]);
+        }
+    }
+
+    /** Average rating from the in-memory aggregates; null if the course has no reviews. */
     public Double getAverageRatingForCourse(Long courseId) {
-        return tx(s -> {
-            Double avg = (Double) s.createQuery("select avg(r.rating) from Review r where r.course.id=:cid")
-                    .setParameter("cid", courseId).uniqueResult();
-            return (avg == null) ? null : avg; // null if no reviews
+        return getAverageRatings(Collections.singletonList(courseId)).get(courseId);
+    }
+
+    /** Averages for a page of courses in one call, in the given order; null values mean no reviews. */
+    public Map<Long, Double> getAverageRatings(Collection<Long> courseIds) {
+        if (!ratings.isLoaded()) rebuildRatingAggregates();
+        List<Long> stale = ratings.staleAmong(courseIds);
+        if (!stale.isEmpty()) {
+            long token = ScanEpochs.begin();
+            ratings.refresh(token, stale, primaryRead("recountRatings", s -> s.createQuery(
+                    "select r.course.id, count(r.id), sum(r.rating) from Review r where r.course.id in (:ids) group by r.course.id",
+                    Object[].class).setParameterList("ids", stale).list()));
+        }
+        Map<Long, Double> out = new LinkedHashMap<>();
+        for (Long id : courseIds) out.put(id, ratings.average(id));
+        return out;
+    }
+
+    /** (Re)loads review counts and rating sums for every course with one grouped query. */
+    public void rebuildRatingAggregates() {
+        ratings.rebuild(() -> primaryRead("rebuildRatingAggregates", s -> s.createQuery(
+                "select r.course.id, count(r.id), sum(r.rating) from Review r group by r.course.id", Object[].class).list()));
+    }
+
+    /* ======== Paged listings: keyset on (sort key, id), DTO projections ======== */
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    public Page<CourseSummary> listCoursesPage(SortKey sort, String cursor, int pageSize) {
+        return keysetPage("listCoursesPage", CourseSummary.class,
+                "select new com.learnsphere.dto.CourseSummary(c.id, c.name, c.instructor, c.durationHours) from Course c",
+                null, Collections.emptyMap(), "c.id", sortPath(sort, SortKey.NAME, "c.name"),
+                sort, cursor, pageSize, CourseSummary::getId, CourseSummary::getName);
+    }
+
+    public Page<UserSummary> listUsersPage(SortKey sort, String cursor, int pageSize) {
+        return keysetPage("listUsersPage", UserSummary.class,
+                "select new com.learnsphere.dto.UserSummary(u.id, u.name, u.email) from User u",
+                null, Collections.emptyMap(), "u.id", sortPath(sort, SortKey.EMAIL, "u.emailNormalized"),
+                sort, cursor, pageSize, UserSummary::getId, x -> User.normalizeEmail(x.getEmail()));
+    }
+
+    public Page<CategorySummary> listCategoriesPage(SortKey sort, String cursor, int pageSize) {
+        return keysetPage("listCategoriesPage", CategorySummary.class,
+                "select new com.learnsphere.dto.CategorySummary(c.id, c.name) from Category c",
+                null, Collections.emptyMap(), "c.id", sortPath(sort, SortKey.NAME, "c.name"),
+                sort, cursor, pageSize, CategorySummary::getId, CategorySummary::getName);
+    }
+
+    public Page<CourseSummary> listCoursesByUserPage(Long userId, SortKey sort, String cursor, int pageSize) {
+        return keysetPage("listCoursesByUserPage", CourseSummary.class,
+                "select new com.learnsphere.dto.CourseSummary(c.id, c.name, c.instructor, c.durationHours)"
+                        + " from Enrollment e join e.course c",
+                "e.user.id = :uid", Collections.singletonMap("uid", userId), "c.id", sortPath(sort, SortKey.NAME, "c.name"),
+                sort, cursor, pageSize, CourseSummary::getId, CourseSummary::getName);
+    }
+
+    private static String sortPath(SortKey sort, SortKey supported, String path) {
+        if (sort == null || sort == SortKey.ID) return null;
+        if (sort != supported) throw new IllegalArgumentException("Unsupported sort key for this listing: " + sort);
+        return path;
+    }
+
+    /**
+     * Runs {@code selectFrom} with a keyset predicate instead of OFFSET: rows strictly after the cursor in
+     * {@code (sortPath, idPath)} order. One extra row is fetched to know whether a next page exists.
+     */
+    private <T> Page<T> keysetPage(String op, Class<T> type, String selectFrom, String filter, Map<String, Object> params,
+                                   String idPath, String sortPath, SortKey sort, String cursor, int pageSize,
+                                   Function<T, Long> idOf, Function<T, String> sortValueOf) {
+        SortKey key = (sort == null) ? SortKey.ID : sort;
+        KeysetCursor after = KeysetCursor.decode(cursor, key);
+        int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+
+        List<String> where = new ArrayList<>();
+        if (filter != null) where.add(filter);
+        if (after != null) {
+            where.add(sortPath == null ? idPath + " > :afterId"
+                    : "(" + sortPath + " > :afterVal or (" + sortPath + " = :afterVal and " + idPath + " > :afterId))");
+        }
+        String hql = selectFrom + (where.isEmpty() ? "" : " where " + String.join(" and ", where))
+                + " order by " + (sortPath == null ? "" : sortPath + ", ") + idPath;
+
+        List<T> rows = readTx(op, s -> {
+            Query<T> q = s.createQuery(hql, type);
+            params.forEach(q::setParameter);
+            if (after != null) {
+                q.setParameter("afterId", after.afterId);
+                if (sortPath != null) q.setParameter("afterVal", after.afterValue);
+            }
+            return q.setMaxResults(size + 1).list();
         });
+        if (rows.size() <= size) return new Page<>(rows, null);
+        List<T> items = new ArrayList<>(rows.subList(0, size));
+        T last = items.get(size - 1);
+        return new Page<>(items, KeysetCursor.encode(key, idOf.apply(last), sortPath == null ? null : sortValueOf.apply(last)));
     }
 
-    /* ======== Search: by keyword (name) or category ======== */
+    /* ======== Search: by keyword (name, instructor) or category ======== */
+    /** Ranked search served from the in-memory {@link CourseSearchIndex}; the index is built on first use. */
     public List<Course> searchCourses(String keywordOrCategory) {
-        String key = keywordOrCategory.trim().toLowerCase();
-        return tx(s -> {
-            // union: by name OR by category name (distinct)
-            List<Course> byName = s.createQuery(
-                    "from Course c where lower(c.name) like :k", Course.class)
-                    .setParameter("k", "%" + key + "%").list();
-            List<Course> byCat = s.createQuery(
-                    "select distinct c from Course c join c.categories cat where lower(cat.name) like :k", Course.class)
-                    .setParameter("k", "%" + key + "%").list();
-
-            // merge distinct
-            Map<Long, Course> map = new LinkedHashMap<>();
-            for (Course c : byName) map.put(c.getId(), c);
-            for (Course c : byCat) map.putIfAbsent(c.getId(), c);
-            return new ArrayList<>(map.values());
+        if (!searchIndex.isLoaded()) rebuildSearchIndex();
+        return searchIndex.search(keywordOrCategory);
+    }
+
+    /** (Re)loads the search index from the database; call at startup to keep the first search fast. */
+    public void rebuildSearchIndex() {
+        searchIndex.rebuild(() -> primaryRead("rebuildSearchIndex", s -> s.createQuery(
+                "select distinct c from Course c left join fetch c.categories", Course.class).list()));
+    }
+
+    /* ======== Review search: BM25 over review text ======== */
+    /**
+     * Up to {@code limit} reviews matching any word of {@code query}, best match first, from the review search
+     * index. {@code courseId}, {@code minRating} and {@code maxRating} narrow the results when not null.
+     */
+    public List<ReviewHit> searchReviews(String query, Long courseId, Integer minRating, Integer maxRating, int limit) {
+        if (!reviewSearch.isLoaded()) loadReviewSearch();
+        return reviewSearch.search(query, courseId, minRating == null ? 0 : minRating, maxRating == null ? 10 : maxRating,
+                Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    /**
+     * Opens the stored review search index and reads back only the reviews written since it was saved, or builds it
+     * when there is none (or it no longer matches the database); call at startup. Returns what was done.
+     */
+    public String loadReviewSearch() { return reviewSearch.load(reviewSource); }
+
+    /** Rebuilds the review search index from one streamed pass over the reviews. */
+    public void rebuildReviewSearch() { reviewSearch.rebuild(reviewSource); }
+
+    private static final String REVIEW_ROW = "select r.id, r.user.id, r.course.id, r.rating, r.text from Review r";
+
+    private final ReviewSearchIndex.Source reviewSource = new ReviewSearchIndex.Source() {
+        @Override public void scan(long afterId, ReviewSearchIndex.ReviewSink sink) {
+            primaryRead("scanReviews", s -> {
+                ScrollableResults rows = s.createQuery(REVIEW_ROW + " where r.id > :after order by r.id")
+                        .setParameter("after", afterId)
+                        .setReadOnly(true)
+                        .setFetchSize(ADMIN_FETCH_SIZE)
+                        .scroll(ScrollMode.FORWARD_ONLY);
+                try {
+                    while (rows.next()) {
+                        sink.accept((Long) rows.get(0), (Long) rows.get(1), (Long) rows.get(2), (Integer) rows.get(3), (String) rows.get(4));
+                    }
+                } finally {
+                    rows.close();
+                }
+                return null;
+            });
+        }
+
+        @Override public void fetch(long[] reviewIds, ReviewSearchIndex.ReviewSink sink) {
+            for (int from = 0; from < reviewIds.length; from += ADMIN_FETCH_SIZE) {
+                List<Long> chunk = new ArrayList<>();
+                for (int i = from; i < Math.min(reviewIds.length, from + ADMIN_FETCH_SIZE); i++) chunk.add(reviewIds[i]);
+                for (Object[] r : primaryRead("fetchReviews", s -> s.createQuery(REVIEW_ROW + " where r.id in (:ids)", Object[].class)
+                        .setParameterList("ids", chunk).list())) {
+                    sink.accept((Long) r[0], (Long) r[1], (Long) r[2], (Integer) r[3], (String) r[4]);
+                }
+            }
+        }
+
+        @Override public long[] totals() {
+            Object[] r = primaryRead("countReviews", s -> s.createQuery(
+                    "select count(r.id), coalesce(sum(r.rating), 0) from Review r", Object[].class).uniqueResult());
+            return new long[]{ ((Number) r[0]).longValue(), ((Number) r[1]).longValue() };
+        }
+    };
+
+    /**
+     * Re-reads reviews written by native upserts (their ids and previous text are unknown here) into the search index.
+     * {@code version} was taken in the upsert's transaction; what is read back is that write or a later one, so it
+     * cannot undo a newer put, and the later write's own put still follows.
+     */
+    private void reindexReviews(long version, List<long[]> pairs) {
+        if (!reviewSearch.isLoaded()) return;
+        Map<Long, Set<Long>> coursesByUser = new HashMap<>();
+        Set<Long> courseIds = new HashSet<>();
+        for (long[] p : pairs) {
+            coursesByUser.computeIfAbsent(p[0], k -> new HashSet<>()).add(p[1]);
+            courseIds.add(p[1]);
+        }
+        List<Object[]> rows = primaryRead("reindexReviews", s -> s.createQuery(
+                REVIEW_ROW + " where r.user.id in (:uids) and r.course.id in (:cids)", Object[].class)
+                .setParameterList("uids", coursesByUser.keySet()).setParameterList("cids", courseIds).list());
+        for (Object[] r : rows) {
+            Set<Long> wanted = coursesByUser.get((Long) r[1]);
+            if (wanted != null && wanted.contains((Long) r[2])) {
+                reviewSearch.put(version, (Long) r[0], (Long) r[1], (Long) r[2], (Integer) r[3], (String) r[4]);
+            }
+        }
+    }
+
+    /* ======== Recommendations: "users who took this also took" ======== */
+    /**
+     * Up to {@code k} courses most often taken together with {@code courseId}, from the in-memory co-enrollment
+     * matrix. With {@code weightByRating}, counts are scaled by the course's average review rating.
+     */
+    public List<Recommendation> recommendForCourse(Long courseId, int k, boolean weightByRating) {
+        if (!recommender.isLoaded()) rebuildRecommendations();
+        return recommender.forCourse(courseId, k, weightByRating ? ratingWeight() : null);
+    }
+
+    /** Up to {@code k} courses the user is not enrolled in, ranked by co-enrollment with the user's courses. */
+    public List<Recommendation> recommendForUser(Long userId, int k, boolean weightByRating) {
+        if (!recommender.isLoaded()) rebuildRecommendations();
+        return recommender.forUser(userId, k, weightByRating ? ratingWeight() : null);
+    }
+
+    /** (Re)builds the co-enrollment matrix from one streamed pass over the enrollments table. */
+    public void rebuildRecommendations() {
+        recommender.rebuild(sink -> scanEnrollments("rebuildRecommendations", sink));
+    }
+
+    /** Streams every (user, course) enrollment pair, ordered by user, through a forward-only cursor. */
+    private void scanEnrollments(String op, CourseRecommender.EnrollmentSink sink) {
+        primaryRead(op, s -> {
+            ScrollableResults rows = s.createQuery(
+                    "select e.user.id, e.course.id from Enrollment e order by e.user.id")
+                    .setReadOnly(true)
+                    .setFetchSize(ADMIN_FETCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (rows.next()) sink.accept((Long) rows.get(0), (Long) rows.get(1));
+            } finally {
+                rows.close();
+            }
+            return null;
         });
     }
 
+    /** (average + 1) / 11 from the rating aggregates, so 0-rated courses still rank; unrated courses count as 5. */
+    private LongToDoubleFunction ratingWeight() {
+        if (!ratings.isLoaded()) rebuildRatingAggregates();
+        return id -> {
+            Double avg = ratings.average(id);
+            return ((avg == null ? 5.0 : avg) + 1.0) / 11.0;
+        };
+    }
+
+    /* ======== Leaderboards: most enrolled, top rated, trending ======== */
+    /**
+     * Best {@code n} courses by {@code metric} within the category, or across the catalog when
+     * {@code categoryId} is null; answered from in-memory boards kept current on every enrollment and review.
+     */
+    public List<RankedCourse> topCourses(LeaderboardMetric metric, Long categoryId, int n) {
+        if (!leaderboards.isLoaded()) rebuildLeaderboards();
+        List<Long> stale = leaderboards.staleCourses();
+        if (!stale.isEmpty()) {
+            long token = ScanEpochs.begin();
+            leaderboards.recount(token, stale, load -> primaryRead("recountLeaderboards", s -> { loadLeaderboards(s, load, stale); return null; }));
+        }
+        return leaderboards.top(metric, categoryId, n);
+    }
+
+    /**
+     * (Re)builds every leaderboard: grouped enrollment and review totals, plus one streamed pass over the
+     * enrollments recent enough to still count towards the trending score.
+     */
+    public void rebuildLeaderboards() {
+        leaderboards.rebuild(load -> primaryRead("rebuildLeaderboards", s -> { loadLeaderboards(s, load, null); return null; }));
+    }
+
+    /** Feeds the boards' rows for every course, or only for {@code courseIds} when not null. */
+    private void loadLeaderboards(Session s, CourseLeaderboards.Loader load, Collection<Long> courseIds) {
+        LocalDateTime since = LocalDateTime.now().minusNanos(leaderboards.trendHorizonMillis() * 1_000_000L);
+        String ofCourses = courseIds == null ? "" : " x.course.id in (:ids)";
+        if (courseIds == null) {
+            for (Object[] r : s.createQuery("select c.id, cat.id from Course c left join c.categories cat", Object[].class).list())
+                load.course((Long) r[0], (Long) r[1]);
+        }
+        Query<Object[]> enrolled = s.createQuery("select x.course.id, count(x.id) from Enrollment x"
+                + (courseIds == null ? "" : " where" + ofCourses) + " group by x.course.id", Object[].class);
+        Query<Object[]> reviewed = s.createQuery("select x.course.id, count(x.id), sum(x.rating) from Review x"
+                + (courseIds == null ? "" : " where" + ofCourses) + " group by x.course.id", Object[].class);
+        Query<?> recent = s.createQuery("select x.course.id, x.enrolledAt from Enrollment x where x.enrolledAt >= :since"
+                + (courseIds == null ? "" : " and" + ofCourses)).setParameter("since", since);
+        if (courseIds != null) {
+            enrolled.setParameterList("ids", courseIds);
+            reviewed.setParameterList("ids", courseIds);
+            recent.setParameterList("ids", courseIds);
+        }
+        for (Object[] r : enrolled.list()) load.enrollments((Long) r[0], ((Number) r[1]).longValue());
+        for (Object[] r : reviewed.list()) load.ratings((Long) r[0], ((Number) r[1]).longValue(), ((Number) r[2]).longValue());
+        ScrollableResults rows = recent.setReadOnly(true).setFetchSize(ADMIN_FETCH_SIZE).scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (rows.next()) load.enrolledAt((Long) rows.get(0), epochMillis((LocalDateTime) rows.get(1)));
+        } finally {
+            rows.close();
+        }
+    }
+
+    private static long epochMillis(LocalDateTime t) { return t.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(); }
+
+    /* ======== Analytics: enrollments and ratings over time, cohort retention ======== */
+    /**
+     * Enrollments per day or week in [from, to] for the course, or the whole catalog when {@code courseId} is
+     * null; weekly buckets cover the whole weeks touching the range. Served from in-memory rollups, so the cost
+     * follows the number of buckets, not enrollments. Empty buckets are omitted.
+     */
+    public List<BucketCount> enrollmentCounts(Long courseId, TimeBucket bucket, LocalDate from, LocalDate to) {
+        return analyticsRollups().enrollments(courseId, bucket, from, to);
+    }
+
+    /** Distribution of current ratings 0..10 by the day (or week) the review was created, as {@link #enrollmentCounts}. */
+    public List<RatingDistribution> ratingDistribution(Long courseId, TimeBucket bucket, LocalDate from, LocalDate to) {
+        return analyticsRollups().ratings(courseId, bucket, from, to);
+    }
+
+    /**
+     * Weekly cohorts of the category that started in [from, to]: users by the week of their first enrollment in
+     * the category, and how many enrolled in one of its courses again in each of the following {@code weeks} weeks.
+     */
+    public List<CohortRetention> cohortRetention(Long categoryId, LocalDate from, LocalDate to, int weeks) {
+        return analyticsRollups().cohorts(categoryId, from, to, weeks);
+    }
+
+    private AnalyticsRollups analyticsRollups() {
+        if (!analytics.isLoaded()) rebuildAnalytics();
+        List<Long> stale = analytics.staleCourses();
+        if (!stale.isEmpty()) {
+            long token = ScanEpochs.begin();
+            List<long[]> enrolled = new ArrayList<>(), reviewed = new ArrayList<>();
+            primaryRead("recountAnalytics", s -> {
+                for (Object[] r : s.createQuery("select e.course.id, cast(e.enrolledAt as date), count(e.id) from Enrollment e"
+                        + " where e.course.id in (:ids) group by e.course.id, cast(e.enrolledAt as date)", Object[].class)
+                        .setParameterList("ids", stale).list()) {
+                    enrolled.add(new long[]{ (Long) r[0], epochDay(r[1]), ((Number) r[2]).longValue() });
+                }
+                for (Object[] r : s.createQuery("select r.course.id, cast(r.createdAt as date), r.rating, count(r.id) from Review r"
+                        + " where r.course.id in (:ids) group by r.course.id, cast(r.createdAt as date), r.rating", Object[].class)
+                        .setParameterList("ids", stale).list()) {
+                    reviewed.add(new long[]{ (Long) r[0], epochDay(r[1]), ((Number) r[2]).intValue(), ((Number) r[3]).longValue() });
+                }
+                return null;
+            });
+            analytics.recount(token, stale, enrolled, reviewed);
+        }
+        return analytics;
+    }
+
+    /**
+     * (Re)builds the analytics rollups: the enrollment and review tables, up to their current highest ids, are
+     * split into id ranges of {@code learnsphere.analytics.backfill_chunk} rows, scanned in parallel on
+     * {@code learnsphere.analytics.backfill_threads} connections and merged. Writes committing meanwhile are
+     * applied afterwards, or recounted per course when the scan may already include them.
+     */
+    public void rebuildAnalytics() {
+        int threads = Math.max(1, Config.getInt("learnsphere.analytics.backfill_threads", Math.max(1, HibernateUtil.getPoolSize() / 2)));
+        long chunk = Math.max(1, Config.getLong("learnsphere.analytics.backfill_chunk", 100_000));
+        analytics.rebuild(new AnalyticsRollups.Backfill() {
+            @Override public void courses(AnalyticsRollups.CourseSink sink) {
+                primaryRead("rebuildAnalytics", s -> {
+                    for (Object[] r : s.createQuery("select c.id, cat.id from Course c left join c.categories cat", Object[].class).list())
+                        sink.accept((Long) r[0], (Long) r[1]);
+                    return null;
+                });
+            }
+
+            @Override public long[] maxIds() {
+                return primaryRead("backfillRange", s -> new long[]{
+                        s.createQuery("select coalesce(max(e.id), 0) from Enrollment e", Long.class).uniqueResult(),
+                        s.createQuery("select coalesce(max(r.id), 0) from Review r", Long.class).uniqueResult() });
+            }
+
+            @Override public void scan(long[] maxIds, Supplier<AnalyticsRollups.Chunk> newChunk) {
+                List<Callable<Void>> tasks = new ArrayList<>();
+                idChunks("Enrollment", maxIds[0], chunk, (lo, hi) -> tasks.add(() -> {
+                    AnalyticsRollups.Chunk c = newChunk.get();
+                    scanRange("backfillEnrollments", "select e.user.id, e.course.id, e.enrolledAt from Enrollment e"
+                            + " where e.id >= :lo and e.id < :hi", lo, hi,
+                            row -> c.enrolled((Long) row[0], (Long) row[1], epochDay((LocalDateTime) row[2])));
+                    return null;
+                }));
+                idChunks("Review", maxIds[1], chunk, (lo, hi) -> tasks.add(() -> {
+                    AnalyticsRollups.Chunk c = newChunk.get();
+                    scanRange("backfillReviews", "select r.course.id, r.createdAt, r.rating from Review r"
+                            + " where r.id >= :lo and r.id < :hi", lo, hi,
+                            row -> c.reviewed((Long) row[0], epochDay((LocalDateTime) row[1]), (Integer) row[2]));
+                    return null;
+                }));
+                runAll(tasks, threads);
+            }
+        });
+    }
+
+    /** Splits [min(id), max] of {@code entity} into half-open ranges of {@code size} ids. */
+    private void idChunks(String entity, long max, long size, BiConsumer<Long, Long> range) {
+        Long first = primaryRead("backfillRange", s -> s.createQuery("select min(x.id) from " + entity + " x", Long.class).uniqueResult());
+        if (first == null) return;
+        long min = first;
+        for (long lo = min; lo <= max; lo += size) range.accept(lo, Math.min(lo + size, max + 1));
+    }
+
+    private void scanRange(String op, String hql, long lo, long hi, Consumer<Object[]> sink) {
+        primaryRead(op, s -> {
+            ScrollableResults rows = s.createQuery(hql)
+                    .setParameter("lo", lo).setParameter("hi", hi)
+                    .setReadOnly(true)
+                    .setFetchSize(ADMIN_FETCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (rows.next()) sink.accept(rows.get());
+            } finally {
+                rows.close();
+            }
+            return null;
+        });
+    }
+
+    /** Runs the tasks on {@code threads} short-lived workers; the first failure is rethrown once all have ended. */
+    private static void runAll(List<Callable<Void>> tasks, int threads) {
+        if (tasks.isEmpty()) return;
+        AtomicInteger n = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, tasks.size()), r -> {
+            Thread t = new Thread(r, "learnsphere-backfill-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    throw new RuntimeException("Backfill failed: " + cause.getMessage(), cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Backfill interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static int epochDay(LocalDateTime t) { return (int) t.toLocalDate().toEpochDay(); }
+
+    /** Epoch day of a {@code cast(... as date)} result, whichever date type the dialect hands back. */
+    private static int epochDay(Object date) {
+        if (date instanceof LocalDate) return (int) ((LocalDate) date).toEpochDay();
+        if (date instanceof java.sql.Date) return (int) ((java.sql.Date) date).toLocalDate().toEpochDay();
+        return epochDay(new java.sql.Date(((java.util.Date) date).getTime()));
+    }
+
+    /* ======== Cache statistics ======== */
+    /**
+     * Second-level and query cache counters since startup: overall hits/misses/puts, the query cache,
+     * and per region ({@code region.<name>.hits} ...). Empty when statistics are disabled.
+     */
+    public Map<String, Long> cacheStatistics() {
+        Statistics st = HibernateUtil.getSessionFactory().getStatistics();
+        Map<String, Long> out = new LinkedHashMap<>();
+        if (!st.isStatisticsEnabled()) return out;
+        out.put("l2.hits", st.getSecondLevelCacheHitCount());
+        out.put("l2.misses", st.getSecondLevelCacheMissCount());
+        out.put("l2.puts", st.getSecondLevelCachePutCount());
+        out.put("query.hits", st.getQueryCacheHitCount());
+        out.put("query.misses", st.getQueryCacheMissCount());
+        out.put("query.puts", st.getQueryCachePutCount());
+        for (String region : st.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics rs = st.getCacheRegionStatistics(region);
+            if (rs == null) continue;
+            out.put("region." + region + ".hits", rs.getHitCount());
+            out.put("region." + region + ".misses", rs.getMissCount());
+            out.put("region." + region + ".puts", rs.getPutCount());
+            if (rs.getElementCountInMemory() >= 0) out.put("region." + region + ".elements", rs.getElementCountInMemory());
+        }
+        return out;
+    }
+
+    /** Drops all in-memory read models after out-of-band writes (e.g. a bulk import); they reload on next use. */
+    void invalidateInMemoryState() {
+        searchIndex.invalidate();
+        ratings.invalidate();
+        recommender.invalidate();
+        leaderboards.invalidate();
+        enrollments.invalidate();
+        analytics.invalidate();
+        reviewSearch.invalidate();
+    }
+
     /* ======== Admin view: list users with enrolled courses ======== */
+    private static final int ADMIN_FETCH_SIZE = 500;
+    private static final int ADMIN_CLEAR_EVERY = 100; // users per persistence-context clear
+
+    /** Collects {@link #streamUsersWithEnrollments} into a map; prefer streaming for large user bases. */
     public Map<User, List<Course>> adminUsersWithEnrollments() {
-        return tx(s -> {
-            List<User> users = s.createQuery("from User", User.class).list();
-            Map<User, List<Course>> out = new LinkedHashMap<>();
-            for (User u : users) {
-                List<Course> cs = s.createQuery("select e.course from Enrollment e where e.user.id=:uid", Course.class)
-                        .setParameter("uid", u.getId()).list();
-                out.put(u, cs);
-            }
-            return out;
+        Map<User, List<Course>> out = new LinkedHashMap<>();
+        streamUsersWithEnrollments(out::put);
+        return out;
+    }
+
+    /**
+     * Streams every user (ordered by id) with their enrolled courses to {@code sink}, using one joined query
+     * read through a forward-only cursor. The session is cleared as it goes, so memory stays flat regardless
+     * of the number of users; the entities handed to the sink are detached once it returns.
+     */
+    public void streamUsersWithEnrollments(BiConsumer<User, List<Course>> sink) {
+        readTx("streamUsersWithEnrollments", s -> {
+            ScrollableResults rows = s.createQuery(
+                    "select u, c from User u left join u.enrollments e left join e.course c order by u.id, c.id")
+                    .setReadOnly(true)
+                    .setCacheMode(CacheMode.IGNORE)
+                    .setFetchSize(ADMIN_FETCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                User current = null;
+                List<Course> courses = new ArrayList<>();
+                int emitted = 0;
+                while (rows.next()) {
+                    User u = (User) rows.get(0);
+                    Course c = (Course) rows.get(1);
+                    if (current == null || !current.getId().equals(u.getId())) {
+                        if (current != null) {
+                            sink.accept(current, courses);
+                            if (++emitted % ADMIN_CLEAR_EVERY == 0) s.clear();
+                        }
+                        current = u;
+                        courses = new ArrayList<>();
+                    }
+                    if (c != null) courses.add(c);
+                }
+                if (current != null) sink.accept(current, courses);
+            } finally {
+                rows.close();
+            }
+            return null;
         });
     }
 }
@@ -0,0 +1,95 @@
+package com.learnsphere.service;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Per-course running review count and rating sum, so averages are answered from memory
+ * instead of one {@code select avg(r.rating)} per course. Updates carry the {@link ScanEpochs#begin} token taken
+ * before their transaction; one that may already be counted by a rebuild or recount marks the course stale.
+ */
+class RatingAggregates {
+    private static final class Agg { long count, sum; }
+
+    private final Map<Long, Agg> byCourse = new HashMap<>();
+    private final Set<Long> stale = new HashSet<>(); // courses written without a known old rating
+    private final ScanEpochs epochs = new ScanEpochs();
+    private volatile boolean loaded;
+
+    boolean isLoaded() { return loaded; }
+
+    /** Loader rows are {@code [courseId, count, sum]}. */
+    synchronized void rebuild(Supplier<List<Object[]>> loader) {
+        byCourse.clear();
+        stale.clear();
+        for (Object[] row : loader.get()) {
+            Agg a = new Agg();
+            a.count = ((Number) row[1]).longValue();
+            a.sum = ((Number) row[2]).longValue();
+            byCourse.put((Long) row[0], a);
+        }
+        epochs.rebuilt();
+        loaded = true;
+    }
+
+    void invalidate() { loaded = false; }
+
+    /** Records a new review ({@code oldRating == null}) or a changed rating on an existing one. */
+    synchronized void apply(long token, Long courseId, Integer oldRating, int newRating) {
+        if (!loaded) return;
+        if (!epochs.applies(token, courseId)) { stale.add(courseId); return; }
+        Agg a = byCourse.computeIfAbsent(courseId, k -> new Agg());
+        if (oldRating == null) a.count++;
+        else a.sum -= oldRating;
+        a.sum += newRating;
+    }
+
+    synchronized void remove(long token, Long courseId, int rating) {
+        if (!loaded) return;
+        if (!epochs.applies(token, courseId)) { stale.add(courseId); return; }
+        Agg a = byCourse.get(courseId);
+        if (a == null) return;
+        a.sum -= rating;
+        if (--a.count <= 0) byCourse.remove(courseId);
+    }
+
+    synchronized void dropCourse(Long courseId) { byCourse.remove(courseId); stale.remove(courseId); epochs.forget(courseId); }
+
+    /** Marks a course whose reviews changed in a way the aggregate cannot follow; see {@link #refresh}. */
+    synchronized void markStale(Long courseId) {
+        if (!loaded) return;
+        epochs.touched(courseId);
+        stale.add(courseId);
+    }
+
+    synchronized List<Long> staleAmong(Collection<Long> courseIds) {
+        if (stale.isEmpty()) return Collections.emptyList();
+        List<Long> out = new ArrayList<>();
+        for (Long id : courseIds) if (stale.contains(id)) out.add(id);
+        return out;
+    }
+
+    /**
+     * Replaces the aggregates of {@code courseIds} with rows {@code [courseId, count, sum]} recounted by a query
+     * that began at {@code token}; courses updated meanwhile stay marked stale.
+     */
+    synchronized void refresh(long token, Collection<Long> courseIds, List<Object[]> rows) {
+        Map<Long, Object[]> byId = new HashMap<>();
+        for (Object[] row : rows) byId.put((Long) row[0], row);
+        for (Long id : courseIds) {
+            if (epochs.recounted(token, id)) stale.remove(id);
+            Object[] row = byId.get(id);
+            if (row == null) { byCourse.remove(id); continue; }
+            Agg a = new Agg();
+            a.count = ((Number) row[1]).longValue();
+            a.sum = ((Number) row[2]).longValue();
+            byCourse.put(id, a);
+        }
+    }
+
+    /** Average rating, or null when the course has no reviews. */
+    synchronized Double average(Long courseId) {
+        Agg a = byCourse.get(courseId);
+        return (a == null || a.count == 0) ? null : (double) a.sum / a.count;
+    }
+}
@@ -0,0 +1,171 @@
+package com.learnsphere.service;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Streams flat records from CSV (first line is the header) or JSON Lines (one flat object per line).
+ * Only the current record is held in memory. JSON arrays of scalars are joined with {@code '|'}.
+ */
+class RecordReader implements Iterator<Map<String, String>>, Closeable {
+    enum Format { CSV, JSON_LINES }
+
+    private final BufferedReader in;
+    private final Format format;
+    private List<String> header;
+    private Map<String, String> next;
+    private long line;
+
+    RecordReader(BufferedReader in, Format format) {
+        this.in = in;
+        this.format = format;
+    }
+
+    static Format formatOf(String fileName) {
+        String f = fileName.toLowerCase(Locale.ROOT);
+        return (f.endsWith(".json") || f.endsWith(".jsonl") || f.endsWith(".ndjson")) ? Format.JSON_LINES : Format.CSV;
+    }
+
+    @Override public boolean hasNext() {
+        if (next == null) next = read();
+        return next != null;
+    }
+
+    @Override public Map<String, String> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Map<String, String> r = next;
+        next = null;
+        return r;
+    }
+
+    /** 1-based line number of the last record read, for error messages. */
+    long line() { return line; }
+
+    @Override public void close() throws IOException { in.close(); }
+
+    private Map<String, String> read() {
+        try {
+            String l;
+            while ((l = in.readLine()) != null) {
+                line++;
+                if (l.trim().isEmpty()) continue;
+                if (format == Format.JSON_LINES) return parseJson(l);
+                if (header == null) { header = parseCsv(l); continue; }
+                List<String> cells = parseCsv(l);
+                Map<String, String> r = new HashMap<>();
+                for (int i = 0; i < header.size() && i < cells.size(); i++) r.put(header.get(i).trim(), cells.get(i));
+                return r;
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /* ======== CSV (RFC 4180 quoting, single-line records) ======== */
+    private List<String> parseCsv(String l) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < l.length(); i++) {
+            char ch = l.charAt(i);
+            if (quoted) {
+                if (ch == '"' && i + 1 < l.length() && l.charAt(i + 1) == '"') { cell.append('"'); i++; }
+                else if (ch == '"') quoted = false;
+                else cell.append(ch);
+            } else if (ch == '"') quoted = true;
+            else if (ch == ',') { out.add(cell.toString()); cell.setLength(0); }
+            else cell.append(ch);
+        }
+        out.add(cell.toString());
+        return out;
+    }
+
+    /* ======== JSON Lines (flat objects only) ======== */
+    private int pos;
+    private String src;
+
+    private Map<String, String> parseJson(String l) {
+        src = l; pos = 0;
+        Map<String, String> r = new HashMap<>();
+        expect('{');
+        if (peek() == '}') { pos++; return r; }
+        do {
+            String key = string();
+            expect(':');
+            r.put(key, value());
+        } while (consume(','));
+        expect('}');
+        return r;
+    }
+
+    private String value() {
+        char c = peek();
+        if (c == '"') return string();
+        if (c == '[') {
+            pos++;
+            StringBuilder joined = new StringBuilder();
+            if (peek() == ']') { pos++; return ""; }
+            do {
+                if (joined.length() > 0) joined.append('|');
+                joined.append(value());
+            } while (consume(','));
+            expect(']');
+            return joined.toString();
+        }
+        int start = pos;
+        while (pos < src.length() && ",}] \t".indexOf(src.charAt(pos)) < 0) pos++;
+        String literal = src.substring(start, pos);
+        if (literal.isEmpty()) throw error("value expected");
+        return literal.equals("null") ? null : literal;
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (pos < src.length()) {
+            char c = src.charAt(pos++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') { sb.append(c); continue; }
+            if (pos >= src.length()) break;
+            char e = src.charAt(pos++);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (pos + 4 > src.length()) throw error("bad unicode escape");
+                    sb.append((char) Integer.parseInt(src.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default: sb.append(e);
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private char peek() {
+        while (pos < src.length() && Character.isWhitespace(src.charAt(pos))) pos++;
+        if (pos >= src.length()) throw error("unexpected end of line");
+        return src.charAt(pos);
+    }
+
+    private boolean consume(char c) {
+        if (peek() != c) return false;
+        pos++;
+        return true;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) throw error("'" + c + "' expected");
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException("Line " + line + ", column " + (pos + 1) + ": " + msg);
+    }
+}
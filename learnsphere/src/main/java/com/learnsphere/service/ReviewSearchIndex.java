@@ -0,0 +1,807 @@
+package com.learnsphere.service;
+
+import com.learnsphere.dto.ReviewHit;
+import com.learnsphere.util.Config;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Full-text search over review text, ranked with BM25 and filtered by course and rating.
+ * <p>
+ * Reviews live in an immutable segment file, memory-mapped and read in place: a table of documents (review,
+ * user and course ids, rating, length in tokens) in review id order, a sorted term dictionary, and per term a
+ * postings list of (document, term frequency) pairs as delta varints. Reviews written since the segment are kept
+ * in an in-memory delta, and the segment documents they replace or delete are masked out. Once the delta and the
+ * masked documents reach {@code learnsphere.review_search.merge_docs}, a background thread merges a copy of both
+ * into a new segment, which replaces the file atomically; reviews changed while it ran are masked out of the new
+ * segment and kept in the delta when it is swapped in.
+ * <p>
+ * The id of every review changed since the segment was written is appended to {@code <file>.log}. On the next
+ * start the segment is reopened, and only those reviews plus reviews with a higher id than any in the segment are
+ * read back from the database. If the review count and rating total then disagree with the database (for example
+ * a different database, or writes by another process), the index is rebuilt. The file defaults to
+ * {@code ~/.learnsphere/reviews.idx}; with {@code learnsphere.review_search.file=none} (as the load generator and
+ * benchmarks use) the segment goes to a temporary file and is rebuilt on every start. A stored segment belongs to
+ * one instance at a time, which holds a lock on {@code <file>.lock}; an instance that finds it taken uses the next
+ * free slot ({@code reviews.1.idx}, ...), so it also keeps its segment across restarts.
+ * <p>
+ * Updates arrive after their transaction commits, so two edits of one review may arrive in either order. Each write
+ * takes a {@link #version} while it holds the review's row lock, and a put or remove older than the last one
+ * applied to that review is ignored.
+ */
+class ReviewSearchIndex {
+    @FunctionalInterface
+    interface ReviewSink { void accept(long reviewId, long userId, long courseId, int rating, String text); }
+
+    /** Where reviews are read from; the service implements it over the database. */
+    interface Source {
+        /** Every review with an id above {@code afterId}, in ascending id order. */
+        void scan(long afterId, ReviewSink sink);
+        /** The current state of these reviews; ids no longer in the database are skipped. */
+        void fetch(long[] reviewIds, ReviewSink sink);
+        /** {@code {number of reviews, sum of their ratings}}. */
+        long[] totals();
+    }
+
+    private static final int MAGIC = 0x4C535256, VERSION = 1; // "LSRV"
+    private static final int HEADER = 64;
+    private static final int DOC_BYTES = 32;  // review id, user id, course id (longs), rating, length (ints)
+    private static final int TERM_BYTES = 16; // term bytes offset, doc freq (ints), postings offset (long)
+    private static final double K1 = 1.2, B = 0.75;
+    private static final int SLOTS = 8; // stored segments per configured file, one per concurrent instance
+
+    /** A review in the in-memory delta; its term frequencies are in {@code deltaPostings}. */
+    private static final class DeltaDoc {
+        final long userId, courseId;
+        final int rating, length;
+        final String[] terms;
+
+        DeltaDoc(long userId, long courseId, int rating, int length, String[] terms) {
+            this.userId = userId; this.courseId = courseId; this.rating = rating; this.length = length; this.terms = terms;
+        }
+    }
+
+    private final Path file;     // null: a temporary file, rebuilt on every start
+    private final Path target;   // where segments are written
+    private final FileLock owner; // held on <file>.lock while this process owns the file; null without one
+    private final int mergeDocs;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ByteBuffer logEntry = ByteBuffer.allocate(8);
+    private final Lock writingSegment = new ReentrantLock(); // one segment file write at a time
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "learnsphere-review-merge");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean loaded;
+    private volatile long generation; // bumped by every load and rebuild; a merge started before one is dropped
+
+    // guarded by lock
+    private Segment segment;
+    private FileChannel log;
+    private BitSet dead = new BitSet();
+    private int deadCount;
+    private long deadLength, deadRatingSum;
+    private final Map<Long, DeltaDoc> delta = new HashMap<>();
+    private final Map<String, TreeMap<Long, Integer>> deltaPostings = new HashMap<>(); // term -> review id -> tf
+    private long deltaLength, deltaRatingSum;
+    private final Map<Long, Long> versions = new HashMap<>(); // review id -> version of the last put or remove applied
+    private final ConcurrentSkipListSet<Long> openVersions = new ConcurrentSkipListSet<>(); // taken, not yet released
+    private boolean merging;
+    private Set<Long> changedWhileMerging; // ids put or removed since the running merge's copy; null without one
+
+    /** Reads {@code learnsphere.review_search.*}: file, merge_docs. */
+    static ReviewSearchIndex fromConfig() {
+        String f = Config.get("learnsphere.review_search.file");
+        Path path = f == null ? Paths.get(System.getProperty("user.home"), ".learnsphere", "reviews.idx")
+                : "none".equalsIgnoreCase(f) ? null : Paths.get(f);
+        return new ReviewSearchIndex(path,
+                Config.getInt("learnsphere.review_search.merge_docs", 20_000));
+    }
+
+    ReviewSearchIndex(Path file, int mergeDocs) {
+        this.mergeDocs = Math.max(1, mergeDocs);
+        FileLock held = null;
+        Path slot = null;
+        if (file != null) {
+            try {
+                Path dir = file.toAbsolutePath().getParent();
+                if (dir != null) Files.createDirectories(dir);
+                for (int i = 0; i < SLOTS && held == null; i++) {
+                    slot = slot(file, i);
+                    held = lockQuietly(slot.resolveSibling(slot.getFileName() + ".lock"));
+                }
+            } catch (IOException e) {
+                System.out.println("Cannot use review index " + file + ": " + e.getMessage());
+            }
+            if (held == null) {
+                System.out.println("Review index " + file + " is unavailable; using a temporary one, rebuilt on every start");
+                slot = null;
+            } else if (!slot.equals(file)) {
+                System.out.println("Review index " + file + " is in use by another instance; using " + slot);
+            }
+        }
+        this.owner = held;
+        this.file = slot;
+        try {
+            if (file == null) {
+                target = Files.createTempFile("learnsphere-reviews", ".idx");
+                target.toFile().deleteOnExit();
+            } else {
+                target = file;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create review index file", e);
+        }
+    }
+
+    /** {@code file} for slot 0, else the name with the slot number before its extension: reviews.1.idx. */
+    private static Path slot(Path file, int i) {
+        if (i == 0) return file;
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return file.resolveSibling(dot <= 0 ? name + "." + i : name.substring(0, dot) + "." + i + name.substring(dot));
+    }
+
+    /** An exclusive lock on {@code lockFile}, kept until exit; null if another process or instance holds it. */
+    private static FileLock lockQuietly(Path lockFile) {
+        FileChannel ch = null;
+        try {
+            ch = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock l = ch.tryLock();
+            if (l != null) return l;
+        } catch (OverlappingFileLockException e) {
+            // held by another index in this JVM
+        } catch (IOException e) {
+            System.out.println("Cannot lock review index: " + e.getMessage());
+        }
+        if (ch != null) {
+            try { ch.close(); } catch (IOException ignored) { }
+        }
+        return null;
+    }
+
+    boolean isLoaded() { return loaded; }
+
+    /** Marks the index stale; the next {@link #load} catches up from the stored segment or rebuilds it. */
+    void invalidate() { loaded = false; }
+
+    /* ======== Loading ======== */
+    /** Opens the stored segment and catches up with the database, or rebuilds; returns which, for the startup report. */
+    String load(Source source) {
+        lock.writeLock().lock();
+        try {
+            if (loaded) return "current";
+            startGeneration();
+            Segment stored = file == null || !Files.exists(file) ? null : openQuietly(file);
+            if (stored != null) {
+                install(stored, false);
+                long[] changed = readLog();
+                source.scan(stored.maxReviewId, (id, u, c, r, text) -> putLocked(id, u, c, r, text, true));
+                if (changed.length > 0) {
+                    Set<Long> found = new HashSet<>();
+                    source.fetch(changed, (id, u, c, r, text) -> { found.add(id); putLocked(id, u, c, r, text, false); });
+                    for (long id : changed) if (!found.contains(id)) removeLocked(id, false);
+                }
+                long[] totals = source.totals();
+                if (totals[0] == liveDocs() && totals[1] == liveRatingSum()) {
+                    loaded = true;
+                    maybeMerge();
+                    return "caught up";
+                }
+            }
+            rebuildLocked(source);
+            return "rebuilt";
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /** Replaces the segment with one built from every review. */
+    void rebuild(Source source) {
+        lock.writeLock().lock();
+        try { rebuildLocked(source); }
+        finally { lock.writeLock().unlock(); }
+    }
+
+    private void rebuildLocked(Source source) {
+        startGeneration();
+        SegmentBuilder b = new SegmentBuilder();
+        source.scan(0, (id, u, c, r, text) -> {
+            Map<String, Integer> tf = termFrequencies(text);
+            int ord = b.addDoc(id, u, c, r, length(tf));
+            tf.forEach((term, n) -> b.add(term, ord, n));
+        });
+        writingSegment.lock(); // after a running merge's write, which the new generation then keeps from swapping in
+        try { install(write(b), true); }
+        finally { writingSegment.unlock(); }
+        loaded = true;
+    }
+
+    /** The index is about to be replaced: a running merge must neither write its segment nor swap it in. */
+    private void startGeneration() {
+        generation++;
+        changedWhileMerging = null;
+    }
+
+    private static Segment openQuietly(Path path) {
+        try {
+            return Segment.open(path);
+        } catch (IOException e) {
+            return null; // unreadable or from another version: rebuilt
+        }
+    }
+
+    /* ======== Maintenance (no-ops until loaded) ======== */
+    /**
+     * A version for the reviews a transaction writes, taken inside it once it holds their row locks, so the versions
+     * of one review follow its commit order. Pass it to {@link #put} / {@link #remove}, then {@link #release} it.
+     */
+    long version() {
+        long v = ScanEpochs.begin();
+        openVersions.add(v);
+        return v;
+    }
+
+    /** Ends the use of {@code version}, after its updates or when its transaction failed. */
+    void release(long version) { openVersions.remove(version); }
+
+    /** Indexes a new or changed review written at {@code version}. */
+    void put(long version, long reviewId, long userId, long courseId, int rating, String text) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded || !newest(version, reviewId)) return;
+            putLocked(reviewId, userId, courseId, rating, text, true);
+            maybeMerge();
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    void remove(long version, long reviewId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded || !newest(version, reviewId)) return;
+            removeLocked(reviewId, true);
+            maybeMerge();
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /** Records {@code version} as the review's latest, unless a newer write of it was applied already. */
+    private boolean newest(long version, long reviewId) {
+        Long applied = versions.get(reviewId);
+        if (applied != null && applied > version) return false;
+        versions.put(reviewId, version);
+        return true;
+    }
+
+    /** Forgets versions older than every open one: no update still to come can be older than them. */
+    private void pruneVersions() {
+        Long oldestOpen = openVersions.ceiling(Long.MIN_VALUE);
+        if (oldestOpen == null) versions.clear();
+        else versions.values().removeIf(v -> v < oldestOpen);
+    }
+
+    /** Drops every review of a deleted course; scans the document table, so meant for rare deletes. */
+    void removeCourse(long courseId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            List<Long> ids = new ArrayList<>();
+            for (int ord = 0; ord < segment.docs; ord++) {
+                if (!dead.get(ord) && segment.courseId(ord) == courseId) ids.add(segment.reviewId(ord));
+            }
+            delta.forEach((id, d) -> { if (d.courseId == courseId) ids.add(id); });
+            for (long id : ids) removeLocked(id, true);
+            maybeMerge();
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    private void putLocked(long reviewId, long userId, long courseId, int rating, String text, boolean logged) {
+        removeLocked(reviewId, false);
+        addDelta(reviewId, userId, courseId, rating, termFrequencies(text));
+        if (logged) logChange(reviewId);
+    }
+
+    private void addDelta(long reviewId, long userId, long courseId, int rating, Map<String, Integer> tf) {
+        DeltaDoc d = new DeltaDoc(userId, courseId, rating, length(tf), tf.keySet().toArray(new String[0]));
+        delta.put(reviewId, d);
+        deltaLength += d.length;
+        deltaRatingSum += rating;
+        tf.forEach((term, n) -> deltaPostings.computeIfAbsent(term, k -> new TreeMap<>()).put(reviewId, n));
+    }
+
+    private void removeLocked(long reviewId, boolean logged) {
+        if (changedWhileMerging != null) changedWhileMerging.add(reviewId);
+        DeltaDoc d = delta.remove(reviewId);
+        if (d != null) { // a segment copy, if any, was masked when the delta took over
+            deltaLength -= d.length;
+            deltaRatingSum -= d.rating;
+            for (String term : d.terms) {
+                TreeMap<Long, Integer> p = deltaPostings.get(term);
+                if (p != null && p.remove(reviewId) != null && p.isEmpty()) deltaPostings.remove(term);
+            }
+        } else {
+            int ord = segment.find(reviewId);
+            if (ord >= 0 && !dead.get(ord)) {
+                dead.set(ord);
+                deadCount++;
+                deadLength += segment.length(ord);
+                deadRatingSum += segment.rating(ord);
+            }
+        }
+        if (logged) logChange(reviewId);
+    }
+
+    private int liveDocs() { return segment.docs - deadCount + delta.size(); }
+    private long liveLength() { return segment.totalLength - deadLength + deltaLength; }
+    private long liveRatingSum() { return segment.ratingSum - deadRatingSum + deltaRatingSum; }
+
+    /* ======== Query ======== */
+    /**
+     * Up to {@code limit} reviews matching any word of the query, best BM25 score first (ties by review id),
+     * optionally restricted to one course and to ratings in {@code [minRating, maxRating]}.
+     */
+    List<ReviewHit> search(String query, Long courseId, int minRating, int maxRating, int limit) {
+        Set<String> terms = new LinkedHashSet<>(CourseSearchIndex.tokenize(query));
+        lock.readLock().lock();
+        try {
+            int n = liveDocs();
+            if (n == 0 || terms.isEmpty() || limit <= 0) return new ArrayList<>();
+            double avgLength = Math.max(1, liveLength()) / (double) n;
+            Map<Long, double[]> scores = new HashMap<>();       // review id -> {score}
+            Map<Long, long[]> docs = new HashMap<>();           // review id -> {user, course, rating}
+            for (String term : terms) {
+                int t = segment.findTerm(term);
+                TreeMap<Long, Integer> dp = deltaPostings.get(term);
+                int df = (t < 0 ? 0 : segment.df(t)) + (dp == null ? 0 : dp.size());
+                if (df == 0) continue;
+                double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+                if (t >= 0) {
+                    for (PostingsCursor p = segment.postings(t); p.next(); ) {
+                        if (dead.get(p.ord)) continue;
+                        long course = segment.courseId(p.ord);
+                        int rating = segment.rating(p.ord);
+                        if ((courseId != null && course != courseId) || rating < minRating || rating > maxRating) continue;
+                        long id = segment.reviewId(p.ord);
+                        scores.computeIfAbsent(id, k -> new double[1])[0] += idf * weight(p.tf, segment.length(p.ord), avgLength);
+                        docs.computeIfAbsent(id, k -> new long[]{ segment.userId(p.ord), course, rating });
+                    }
+                }
+                if (dp != null) {
+                    for (Map.Entry<Long, Integer> e : dp.entrySet()) {
+                        DeltaDoc d = delta.get(e.getKey());
+                        if ((courseId != null && d.courseId != courseId) || d.rating < minRating || d.rating > maxRating) continue;
+                        scores.computeIfAbsent(e.getKey(), k -> new double[1])[0] += idf * weight(e.getValue(), d.length, avgLength);
+                        docs.computeIfAbsent(e.getKey(), k -> new long[]{ d.userId, d.courseId, d.rating });
+                    }
+                }
+            }
+
+            Comparator<ReviewHit> order = Comparator.comparingDouble(ReviewHit::getScore)
+                    .thenComparing(ReviewHit::getReviewId, Comparator.reverseOrder());
+            PriorityQueue<ReviewHit> heap = new PriorityQueue<>(Math.min(limit, scores.size()) + 1, order);
+            for (Map.Entry<Long, double[]> e : scores.entrySet()) {
+                long[] d = docs.get(e.getKey());
+                heap.add(new ReviewHit(e.getKey(), d[0], d[1], (int) d[2], e.getValue()[0]));
+                if (heap.size() > limit) heap.poll();
+            }
+            List<ReviewHit> out = new ArrayList<>(heap);
+            out.sort(order.reversed());
+            return out;
+        } finally { lock.readLock().unlock(); }
+    }
+
+    private static double weight(int tf, int length, double avgLength) {
+        return tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / avgLength));
+    }
+
+    private static Map<String, Integer> termFrequencies(String text) {
+        Map<String, Integer> tf = new HashMap<>();
+        for (String t : CourseSearchIndex.tokenize(text)) tf.merge(t, 1, Integer::sum);
+        return tf;
+    }
+
+    private static int length(Map<String, Integer> tf) {
+        int n = 0;
+        for (int c : tf.values()) n += c;
+        return n;
+    }
+
+    /* ======== Merging ======== */
+    /** Starts a background merge of a copy of the segment and delta once they are due for one. */
+    private void maybeMerge() {
+        if (merging || delta.size() + deadCount < mergeDocs) return;
+        pruneVersions();
+        merging = true;
+        changedWhileMerging = new HashSet<>();
+        long gen = generation;
+        Segment base = segment;
+        BitSet deadCopy = (BitSet) dead.clone();
+        Map<Long, DeltaDoc> deltaCopy = new HashMap<>(delta);
+        Map<String, TreeMap<Long, Integer>> postingsCopy = new HashMap<>(deltaPostings.size() * 2);
+        deltaPostings.forEach((term, p) -> postingsCopy.put(term, new TreeMap<>(p)));
+        merger.execute(() -> merge(gen, () -> merged(base, deadCopy, deltaCopy, postingsCopy)));
+    }
+
+    /** Writes the merged segment off the index lock, then swaps it in unless the index was replaced meanwhile. */
+    private void merge(long gen, Supplier<SegmentBuilder> merged) {
+        Segment s = null;
+        try {
+            SegmentBuilder b = merged.get();
+            writingSegment.lock();
+            try { if (gen == generation) s = write(b); }
+            finally { writingSegment.unlock(); }
+        } catch (RuntimeException e) {
+            System.out.println("Review index merge failed: " + e.getMessage());
+        }
+        lock.writeLock().lock();
+        try {
+            Set<Long> changed = changedWhileMerging;
+            merging = false;
+            changedWhileMerging = null;
+            if (s == null || gen != generation) return;
+            swapIn(s, changed);
+            maybeMerge();
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /** Installs the merged segment {@code s}, keeping the reviews {@code changed} after it was copied in the delta. */
+    private void swapIn(Segment s, Set<Long> changed) {
+        Map<Long, DeltaDoc> keptDocs = new HashMap<>();
+        Map<Long, Map<String, Integer>> keptTf = new HashMap<>();
+        for (long id : changed) {
+            DeltaDoc d = delta.get(id);
+            if (d == null) continue; // removed: only masked below
+            Map<String, Integer> tf = new HashMap<>();
+            for (String term : d.terms) tf.put(term, deltaPostings.get(term).get(id));
+            keptDocs.put(id, d);
+            keptTf.put(id, tf);
+        }
+        install(s, true);
+        for (long id : changed) {
+            removeLocked(id, false);
+            DeltaDoc d = keptDocs.get(id);
+            if (d != null) addDelta(id, d.userId, d.courseId, d.rating, keptTf.get(id));
+            logChange(id);
+        }
+    }
+
+    /** Live segment documents and the delta, in review id order, as one new segment. */
+    private static SegmentBuilder merged(Segment segment, BitSet dead, Map<Long, DeltaDoc> delta,
+                                         Map<String, TreeMap<Long, Integer>> deltaPostings) {
+        SegmentBuilder b = new SegmentBuilder();
+        long[] ids = new long[delta.size()];
+        int k = 0;
+        for (Long id : delta.keySet()) ids[k++] = id;
+        Arrays.sort(ids);
+        Map<Long, Integer> deltaOrd = new HashMap<>(ids.length * 2);
+        int[] remap = new int[segment.docs];
+        for (int i = 0, j = 0; i < segment.docs || j < ids.length; ) {
+            if (i < segment.docs && dead.get(i)) {
+                remap[i++] = -1;
+            } else if (j == ids.length || (i < segment.docs && segment.reviewId(i) < ids[j])) {
+                remap[i] = b.addDoc(segment.reviewId(i), segment.userId(i), segment.courseId(i), segment.rating(i), segment.length(i));
+                i++;
+            } else {
+                DeltaDoc d = delta.get(ids[j]);
+                deltaOrd.put(ids[j], b.addDoc(ids[j], d.userId, d.courseId, d.rating, d.length));
+                j++;
+            }
+        }
+        b.maxReviewId = Math.max(b.maxReviewId, segment.maxReviewId);
+
+        // per term, the remapped segment postings and the delta postings are both ascending: merge them
+        for (int t = 0; t < segment.terms; t++) {
+            String term = segment.term(t);
+            TreeMap<Long, Integer> dp = deltaPostings.get(term);
+            Iterator<Map.Entry<Long, Integer>> di = dp == null ? Collections.emptyIterator() : dp.entrySet().iterator();
+            Map.Entry<Long, Integer> next = di.hasNext() ? di.next() : null;
+            for (PostingsCursor p = segment.postings(t); p.next(); ) {
+                int ord = remap[p.ord];
+                if (ord < 0) continue;
+                for (; next != null && deltaOrd.get(next.getKey()) < ord; next = di.hasNext() ? di.next() : null) {
+                    b.add(term, deltaOrd.get(next.getKey()), next.getValue());
+                }
+                b.add(term, ord, p.tf);
+            }
+            for (; next != null; next = di.hasNext() ? di.next() : null) b.add(term, deltaOrd.get(next.getKey()), next.getValue());
+        }
+        deltaPostings.forEach((term, dp) -> {
+            if (segment.findTerm(term) >= 0) return;
+            dp.forEach((id, tf) -> b.add(term, deltaOrd.get(id), tf));
+        });
+        return b;
+    }
+
+    /** Makes {@code s} the segment with an empty delta; {@code fresh} when it holds every change, so the log restarts. */
+    private void install(Segment s, boolean fresh) {
+        segment = s;
+        dead = new BitSet();
+        deadCount = 0;
+        deadLength = deadRatingSum = 0;
+        delta.clear();
+        deltaPostings.clear();
+        deltaLength = deltaRatingSum = 0;
+        if (file == null) return;
+        try {
+            if (log == null) log = FileChannel.open(logPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (fresh) log.truncate(0);
+            log.position(log.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open review index log " + logPath(), e);
+        }
+    }
+
+    /* ======== Change log: ids of reviews changed since the segment ======== */
+    private Path logPath() { return file.resolveSibling(file.getFileName() + ".log"); }
+
+    private void logChange(long reviewId) {
+        if (log == null) return;
+        logEntry.clear();
+        logEntry.putLong(reviewId).flip();
+        try {
+            while (logEntry.hasRemaining()) log.write(logEntry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot append to review index log " + logPath(), e);
+        }
+    }
+
+    private long[] readLog() {
+        try {
+            ByteBuffer buf = ByteBuffer.allocate((int) (log.size() & ~7L));
+            while (buf.hasRemaining() && log.read(buf, buf.position()) > 0) { /* fill */ }
+            buf.flip();
+            long[] ids = new long[buf.remaining() / 8];
+            for (int i = 0; i < ids.length; i++) ids[i] = buf.getLong();
+            return ids;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read review index log " + logPath(), e);
+        }
+    }
+
+    /* ======== Segment file ======== */
+    private Segment write(SegmentBuilder b) {
+        try {
+            return b.write(target);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write review index " + target, e);
+        }
+    }
+
+    /** Collects documents in ascending review id order and, per term, postings in ascending document order. */
+    private static final class SegmentBuilder {
+        private long[] reviewIds = new long[1024], userIds = new long[1024], courseIds = new long[1024];
+        private int[] ratings = new int[1024], lengths = new int[1024];
+        private int docs;
+        private long totalLength, ratingSum, maxReviewId;
+        private final TreeMap<String, PostingsBuilder> postings = new TreeMap<>();
+
+        int addDoc(long reviewId, long userId, long courseId, int rating, int length) {
+            if (docs > 0 && reviewId <= reviewIds[docs - 1]) throw new IllegalStateException("Reviews out of id order: " + reviewId);
+            if (docs == reviewIds.length) {
+                int cap = docs * 2;
+                reviewIds = Arrays.copyOf(reviewIds, cap); userIds = Arrays.copyOf(userIds, cap); courseIds = Arrays.copyOf(courseIds, cap);
+                ratings = Arrays.copyOf(ratings, cap); lengths = Arrays.copyOf(lengths, cap);
+            }
+            reviewIds[docs] = reviewId; userIds[docs] = userId; courseIds[docs] = courseId;
+            ratings[docs] = rating; lengths[docs] = length;
+            totalLength += length;
+            ratingSum += rating;
+            maxReviewId = reviewId;
+            return docs++;
+        }
+
+        void add(String term, int ord, int tf) { postings.computeIfAbsent(term, k -> new PostingsBuilder()).add(ord, tf); }
+
+        /** Writes the segment next to {@code path}, then moves it over {@code path} and maps it. */
+        Segment write(Path path) throws IOException {
+            List<byte[]> terms = new ArrayList<>(postings.size());
+            long termBytes = 0, postingBytes = 0;
+            for (Map.Entry<String, PostingsBuilder> e : postings.entrySet()) {
+                byte[] t = e.getKey().getBytes(StandardCharsets.UTF_8);
+                terms.add(t);
+                termBytes += t.length;
+                postingBytes += e.getValue().len;
+            }
+            long termBytesAt = HEADER + (long) docs * DOC_BYTES, postingsAt = termBytesAt + termBytes, termDirAt = postingsAt + postingBytes;
+
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16));
+                out.writeInt(MAGIC); out.writeInt(VERSION); out.writeInt(docs); out.writeInt(postings.size());
+                out.writeLong(maxReviewId); out.writeLong(totalLength); out.writeLong(ratingSum);
+                out.writeLong(termBytesAt); out.writeLong(postingsAt); out.writeLong(termDirAt);
+                for (int i = 0; i < docs; i++) {
+                    out.writeLong(reviewIds[i]); out.writeLong(userIds[i]); out.writeLong(courseIds[i]);
+                    out.writeInt(ratings[i]); out.writeInt(lengths[i]);
+                }
+                for (byte[] t : terms) out.write(t);
+                for (PostingsBuilder p : postings.values()) out.write(p.data, 0, p.len);
+                int termOffset = 0;
+                long postingsOffset = 0;
+                Iterator<byte[]> ti = terms.iterator();
+                for (PostingsBuilder p : postings.values()) {
+                    out.writeInt(termOffset); out.writeInt(p.df); out.writeLong(postingsOffset);
+                    termOffset += ti.next().length;
+                    postingsOffset += p.len;
+                }
+                out.flush();
+                ch.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return Segment.open(path);
+        }
+    }
+
+    private static final class PostingsBuilder {
+        byte[] data = new byte[8];
+        int len, df, last;
+
+        void add(int ord, int tf) {
+            if (data.length - len < 10) data = Arrays.copyOf(data, Math.max(data.length * 2, len + 10));
+            len = writeVarint(data, len, ord - last);
+            len = writeVarint(data, len, tf);
+            last = ord;
+            df++;
+        }
+    }
+
+    private static int writeVarint(byte[] buf, int at, int v) {
+        while ((v & ~0x7F) != 0) {
+            buf[at++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[at++] = (byte) v;
+        return at;
+    }
+
+    /** A mapped segment; immutable, so readers need no more than the index read lock. */
+    private static final class Segment {
+        final Mapped m;
+        final int docs, terms;
+        final long maxReviewId, totalLength, ratingSum, termBytesAt, postingsAt, termDirAt;
+
+        private Segment(Mapped m) {
+            this.m = m;
+            docs = m.getInt(8);
+            terms = m.getInt(12);
+            maxReviewId = m.getLong(16);
+            totalLength = m.getLong(24);
+            ratingSum = m.getLong(32);
+            termBytesAt = m.getLong(40);
+            postingsAt = m.getLong(48);
+            termDirAt = m.getLong(56);
+        }
+
+        static Segment open(Path path) throws IOException {
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = ch.size();
+                if (size < HEADER) throw new IOException("Truncated review index " + path);
+                Mapped m = new Mapped(ch, size); // the mapping outlives the channel
+                if (m.getInt(0) != MAGIC || m.getInt(4) != VERSION) throw new IOException("Not a review index (or an older version): " + path);
+                Segment s = new Segment(m);
+                if (s.termDirAt + (long) s.terms * TERM_BYTES != size) throw new IOException("Truncated review index " + path);
+                return s;
+            }
+        }
+
+        long reviewId(int ord) { return m.getLong(HEADER + (long) ord * DOC_BYTES); }
+        long userId(int ord) { return m.getLong(HEADER + (long) ord * DOC_BYTES + 8); }
+        long courseId(int ord) { return m.getLong(HEADER + (long) ord * DOC_BYTES + 16); }
+        int rating(int ord) { return m.getInt(HEADER + (long) ord * DOC_BYTES + 24); }
+        int length(int ord) { return m.getInt(HEADER + (long) ord * DOC_BYTES + 28); }
+
+        /** Document ordinal of the review, or -1. */
+        int find(long reviewId) {
+            int lo = 0, hi = docs - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long id = reviewId(mid);
+                if (id < reviewId) lo = mid + 1; else if (id > reviewId) hi = mid - 1; else return mid;
+            }
+            return -1;
+        }
+
+        private long dir(int t) { return termDirAt + (long) t * TERM_BYTES; }
+        int df(int t) { return m.getInt(dir(t) + 4); }
+
+        String term(int t) {
+            long from = termBytesAt + m.getInt(dir(t)), to = t + 1 < terms ? termBytesAt + m.getInt(dir(t + 1)) : postingsAt;
+            byte[] bytes = new byte[(int) (to - from)];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = m.get(from + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Index of the term in the dictionary, or -1. */
+        int findTerm(String term) {
+            int lo = 0, hi = terms - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = term(mid).compareTo(term);
+                if (cmp < 0) lo = mid + 1; else if (cmp > 0) hi = mid - 1; else return mid;
+            }
+            return -1;
+        }
+
+        PostingsCursor postings(int t) { return new PostingsCursor(m, postingsAt + m.getLong(dir(t) + 8), df(t)); }
+    }
+
+    private static final class PostingsCursor {
+        private final Mapped m;
+        private long pos;
+        private int left;
+        int ord, tf;
+
+        PostingsCursor(Mapped m, long pos, int count) { this.m = m; this.pos = pos; this.left = count; }
+
+        boolean next() {
+            if (left == 0) return false;
+            left--;
+            ord += varint();
+            tf = varint();
+            return true;
+        }
+
+        private int varint() {
+            int v = 0, shift = 0;
+            byte b;
+            do {
+                b = m.get(pos++);
+                v |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return v;
+        }
+    }
+
+    /** Read-only file mapping in 1 GB chunks, since one mapping cannot exceed 2 GB. */
+    private static final class Mapped {
+        private static final int SHIFT = 30;
+        private static final long MASK = (1L << SHIFT) - 1;
+        private final ByteBuffer[] chunks;
+
+        Mapped(FileChannel ch, long size) throws IOException {
+            chunks = new ByteBuffer[(int) ((size + MASK) >>> SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long at = (long) i << SHIFT;
+                chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, at, Math.min(1L << SHIFT, size - at));
+            }
+        }
+
+        byte get(long pos) { return chunks[(int) (pos >>> SHIFT)].get((int) (pos & MASK)); }
+
+        int getInt(long pos) {
+            ByteBuffer c = chunks[(int) (pos >>> SHIFT)];
+            int off = (int) (pos & MASK);
+            if (off + 4 <= c.limit()) return c.getInt(off);
+            return (get(pos) & 0xFF) << 24 | (get(pos + 1) & 0xFF) << 16 | (get(pos + 2) & 0xFF) << 8 | (get(pos + 3) & 0xFF);
+        }
+
+        long getLong(long pos) {
+            ByteBuffer c = chunks[(int) (pos >>> SHIFT)];
+            int off = (int) (pos & MASK);
+            if (off + 8 <= c.limit()) return c.getLong(off);
+            return (long) getInt(pos) << 32 | (getInt(pos + 4) & 0xFFFF_FFFFL);
+        }
+    }
+}
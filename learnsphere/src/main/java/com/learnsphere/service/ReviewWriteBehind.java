@@ -0,0 +1,362 @@
+package com.learnsphere.service;
+
+import com.learnsphere.util.Config;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind buffer for review submissions.
+ * <p>
+ * Accepted reviews wait in a bounded map keyed by (user, course), so a user re-submitting the same course only
+ * replaces the pending entry. A daemon flusher drains up to {@code batchSize} entries every {@code flushMillis}
+ * (sooner when a full batch is waiting) and hands them to the writer in one transaction. A failed batch is
+ * retried row by row so one bad row cannot block the rest; if no row goes through, the batch is requeued (unless
+ * a newer submission for the same pair arrived meanwhile). When the map is full, submitters wait up to
+ * {@code offerTimeoutMillis} and are then rejected.
+ * <p>
+ * Durability {@link Durability#NONE} loses pending reviews on a crash (they are still flushed on a normal
+ * shutdown); {@link Durability#JOURNAL} appends each submission to a journal file and fsyncs it before
+ * accepting, replays the journal on start and truncates it whenever everything in it has been written.
+ */
+class ReviewWriteBehind implements AutoCloseable {
+    enum Durability { NONE, JOURNAL }
+
+    static final class Pending {
+        final long userId, courseId;
+        final int rating;
+        final String text;
+        final long submittedAt;
+
+        Pending(long userId, long courseId, int rating, String text, long submittedAt) {
+            this.userId = userId; this.courseId = courseId; this.rating = rating; this.text = text;
+            this.submittedAt = submittedAt;
+        }
+    }
+
+    private static final class Key {
+        final long userId, courseId;
+        Key(long userId, long courseId) { this.userId = userId; this.courseId = courseId; }
+        @Override public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).userId == userId && ((Key) o).courseId == courseId;
+        }
+        @Override public int hashCode() { return Long.hashCode(userId * 31 + courseId); }
+    }
+
+    private final Consumer<List<Pending>> writer;
+    private final int capacity, batchSize;
+    private final long flushMillis, offerTimeoutMillis;
+    private final Path journalFile;              // null unless JOURNAL
+    private FileChannel journal;                 // null unless JOURNAL; guarded by this once the flusher runs
+    private final ReentrantLock writing = new ReentrantLock(); // held while a batch is in the database
+    private final Thread flusher;
+
+    // guarded by this
+    private final LinkedHashMap<Key, Pending> pending = new LinkedHashMap<>();
+    private Map<Key, Pending> inFlight = Collections.emptyMap();
+    private boolean running = true, flushNow;
+    private long oldestPendingAt;
+
+    /** Reads {@code learnsphere.reviews.*}: queue_capacity, batch_size, flush_millis, offer_timeout_millis, durability, journal. */
+    static ReviewWriteBehind fromConfig(Consumer<List<Pending>> writer) {
+        Durability d = Durability.valueOf(Config.get("learnsphere.reviews.durability", "NONE").toUpperCase(Locale.ROOT));
+        return new ReviewWriteBehind(writer,
+                Config.getInt("learnsphere.reviews.queue_capacity", 10_000),
+                Config.getInt("learnsphere.reviews.batch_size", 500),
+                Config.getLong("learnsphere.reviews.flush_millis", 200),
+                Config.getLong("learnsphere.reviews.offer_timeout_millis", 1_000),
+                d == Durability.JOURNAL ? Paths.get(Config.get("learnsphere.reviews.journal", "learnsphere-reviews.journal")) : null);
+    }
+
+    ReviewWriteBehind(Consumer<List<Pending>> writer, int capacity, int batchSize, long flushMillis,
+                      long offerTimeoutMillis, Path journalFile) {
+        this.writer = writer;
+        this.capacity = Math.max(1, capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushMillis = Math.max(1, flushMillis);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.journalFile = journalFile;
+        try {
+            this.journal = journalFile == null ? null : FileChannel.open(journalFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (journal != null) replay();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open review journal " + journalFile, e);
+        }
+        flusher = new Thread(this::runFlusher, "learnsphere-review-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "learnsphere-review-flush-on-exit"));
+    }
+
+    /* ======== Submitting ======== */
+    /** Queues the review, replacing a pending one for the same pair; with a journal, returns once it is on disk. */
+    void submit(long userId, long courseId, int rating, String text) {
+        Key key = new Key(userId, courseId);
+        Pending p = new Pending(userId, courseId, rating, text, System.currentTimeMillis());
+        synchronized (this) {
+            if (!running) throw new RejectedExecutionException("Review buffer is closed");
+            long deadline = System.currentTimeMillis() + offerTimeoutMillis;
+            while (pending.size() >= capacity && !pending.containsKey(key)) {
+                flushNow = true;
+                notifyAll();
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) throw new RejectedExecutionException("Review buffer full (" + capacity + " pending reviews)");
+                waitQuietly(left);
+            }
+            if (journal != null) append(p);
+            if (pending.isEmpty()) oldestPendingAt = p.submittedAt;
+            pending.remove(key); // re-insert at the tail: a resubmission is as recent as it gets
+            pending.put(key, p);
+            if (pending.size() >= batchSize) notifyAll();
+        }
+    }
+
+    /** The caller's own not-yet-written review of the course, if any (pending or being written right now). */
+    synchronized Pending pendingFor(long userId, long courseId) {
+        Key key = new Key(userId, courseId);
+        Pending p = pending.get(key);
+        return p != null ? p : inFlight.get(key);
+    }
+
+    synchronized int size() { return pending.size() + inFlight.size(); }
+
+    /**
+     * Drops a pending submission and waits out any batch being written, before a synchronous write of the
+     * same pair; otherwise the older buffered value could land after it. A submission in the batch being written
+     * is also dropped from it, so it is not put back if that batch fails.
+     */
+    void discard(long userId, long courseId) {
+        synchronized (this) {
+            Key key = new Key(userId, courseId);
+            boolean queued = pending.remove(key) != null;
+            boolean batched = inFlight.remove(key) != null; // its batch still writes it, but a retry must not
+            boolean buffered = queued || batched;
+            // journaled submissions would be replayed over the synchronous write after a crash: cancel them
+            if (buffered && journal != null) append(new Pending(userId, courseId, TOMBSTONE, null, System.currentTimeMillis()));
+        }
+        writing.lock();
+        writing.unlock();
+    }
+
+    /** Blocks until everything submitted before this call has been written (or the flusher has stopped). */
+    synchronized void flush() {
+        while ((!pending.isEmpty() || !inFlight.isEmpty()) && flusher.isAlive()) {
+            flushNow = true;
+            notifyAll();
+            waitQuietly(flushMillis);
+        }
+    }
+
+    /** Stops accepting, writes everything pending and stops the flusher. */
+    @Override public void close() {
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            notifyAll();
+        }
+        try {
+            flusher.join(30_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (journal != null) {
+                try { journal.close(); } catch (IOException ignored) { }
+            }
+        }
+    }
+
+    /* ======== Flushing ======== */
+    private void runFlusher() {
+        while (true) {
+            synchronized (this) {
+                while (running && !flushNow && pending.size() < batchSize
+                        && (pending.isEmpty() || System.currentTimeMillis() - oldestPendingAt < flushMillis)) {
+                    waitQuietly(pending.isEmpty() ? flushMillis : Math.max(1, flushMillis - (System.currentTimeMillis() - oldestPendingAt)));
+                }
+                if (pending.isEmpty()) {
+                    flushNow = false;
+                    if (!running) return;
+                    continue;
+                }
+                Map<Key, Pending> drained = new LinkedHashMap<>();
+                Iterator<Map.Entry<Key, Pending>> it = pending.entrySet().iterator();
+                while (it.hasNext() && drained.size() < batchSize) {
+                    Map.Entry<Key, Pending> e = it.next();
+                    drained.put(e.getKey(), e.getValue());
+                    it.remove();
+                }
+                if (pending.isEmpty()) flushNow = false;
+                else oldestPendingAt = pending.values().iterator().next().submittedAt;
+                inFlight = drained;
+                notifyAll(); // room for blocked submitters
+            }
+            boolean ok;
+            writing.lock();
+            try {
+                // read the batch only now: a discard() that got in first has removed its pair, later ones wait for us
+                List<Pending> batch;
+                synchronized (this) { batch = new ArrayList<>(inFlight.values()); }
+                ok = batch.isEmpty() || write(batch);
+            } finally {
+                writing.unlock();
+            }
+            synchronized (this) {
+                if (!ok) {
+                    // put back what was not superseded or discarded meanwhile, ahead of newer submissions
+                    LinkedHashMap<Key, Pending> retry = new LinkedHashMap<>(inFlight);
+                    retry.keySet().removeAll(pending.keySet());
+                    retry.putAll(pending);
+                    pending.clear();
+                    pending.putAll(retry);
+                    oldestPendingAt = System.currentTimeMillis();
+                }
+                inFlight = Collections.emptyMap();
+                if (ok && journal != null) compactJournal();
+                notifyAll();
+                if (!ok) waitQuietly(running ? 1_000 : 100); // back off before retrying
+            }
+        }
+    }
+
+    /**
+     * Writes the batch; if it fails, row by row, dropping rows that fail on their own (e.g. invalid text).
+     * False only if nothing could be written, i.e. the database is unavailable: the batch is then retried.
+     */
+    private boolean write(List<Pending> batch) {
+        try {
+            writer.accept(batch);
+            return true;
+        } catch (RuntimeException batchFailure) {
+            if (batch.size() == 1) {
+                System.out.println("Review flush failed, will retry: " + batchFailure.getMessage());
+                return false;
+            }
+            List<String> dropped = new ArrayList<>();
+            for (Pending p : batch) {
+                try {
+                    writer.accept(Collections.singletonList(p));
+                } catch (RuntimeException e) {
+                    dropped.add("user " + p.userId + " course " + p.courseId + ": " + e.getMessage());
+                }
+            }
+            if (dropped.size() == batch.size()) {
+                System.out.println("Review flush failed, will retry: " + batchFailure.getMessage());
+                return false;
+            }
+            dropped.forEach(d -> System.out.println("Dropped buffered review of " + d));
+            return true;
+        }
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* ======== Journal: [int length][long user][long course][int rating][long submittedAt][text bytes or -1] ======== */
+    private static final int TOMBSTONE = -1; // rating of a record cancelling earlier ones for the pair
+
+    private void append(Pending p) {
+        try {
+            journal.position(journal.size());
+            write(journal, p);
+            journal.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot journal review", e);
+        }
+    }
+
+    private static void write(FileChannel ch, Pending p) throws IOException {
+        byte[] text = p.text == null ? null : p.text.getBytes(StandardCharsets.UTF_8);
+        int len = 8 + 8 + 4 + 8 + 4 + (text == null ? 0 : text.length);
+        ByteBuffer buf = ByteBuffer.allocate(4 + len);
+        buf.putInt(len).putLong(p.userId).putLong(p.courseId).putInt(p.rating).putLong(p.submittedAt);
+        buf.putInt(text == null ? -1 : text.length);
+        if (text != null) buf.put(text);
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    private void replay() throws IOException {
+        ByteBuffer all = ByteBuffer.allocate((int) journal.size());
+        journal.position(0);
+        while (all.hasRemaining() && journal.read(all) >= 0) { /* read whole journal */ }
+        all.flip();
+        int replayed = 0;
+        while (all.remaining() >= 4) {
+            int len = all.getInt();
+            if (len < 32 || all.remaining() < len) break; // torn tail of a crash mid-append
+            long user = all.getLong(), course = all.getLong();
+            int rating = all.getInt();
+            long at = all.getLong();
+            int textLen = all.getInt();
+            String text = null;
+            if (textLen >= 0) {
+                byte[] b = new byte[textLen];
+                all.get(b);
+                text = new String(b, StandardCharsets.UTF_8);
+            }
+            Key key = new Key(user, course);
+            pending.remove(key);
+            if (rating != TOMBSTONE) pending.put(key, new Pending(user, course, rating, text, at));
+            replayed++;
+        }
+        if (replayed > 0 && !pending.isEmpty()) {
+            oldestPendingAt = 0; // flush right away
+            System.out.println("Replaying " + pending.size() + " journaled review(s)");
+        }
+    }
+
+    /**
+     * After a successful batch: replaces the journal with the submissions still pending, so it never holds more
+     * than the buffer and a crash replays only unwritten reviews. The new journal is written next to the old one
+     * and renamed over it; if that fails the old journal is kept, which replays correctly, only longer.
+     */
+    private void compactJournal() {
+        if (pending.isEmpty()) {
+            try {
+                journal.truncate(0);
+                journal.force(false);
+            } catch (IOException e) {
+                System.out.println("Cannot truncate review journal: " + e.getMessage());
+            }
+            return;
+        }
+        Path tmp = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        FileChannel next = null;
+        try {
+            next = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            for (Pending p : pending.values()) write(next, p);
+            next.force(false);
+            Files.move(tmp, journalFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            FileChannel old = journal;
+            journal = next; // the open channel follows the renamed file
+            next = null;
+            old.close();
+        } catch (IOException e) {
+            System.out.println("Cannot compact review journal: " + e.getMessage());
+        } finally {
+            if (next != null) {
+                try { next.close(); Files.deleteIfExists(tmp); } catch (IOException ignored) { }
+            }
+        }
+    }
+}
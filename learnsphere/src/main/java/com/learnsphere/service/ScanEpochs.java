@@ -0,0 +1,62 @@
+package com.learnsphere.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Orders post-commit updates of an in-memory view against the database scans that load it.
+ * <p>
+ * A writer takes a {@link #begin} token before its transaction and passes it along with the update once it has
+ * committed. A scan (full rebuild or per-course recount) takes its own token before its query and records itself
+ * when its result is installed. A write that began before a scan of its course was installed may or may not be in
+ * that scan, so {@link #applies} says no and the owner marks the course for a recount instead of adjusting it. A
+ * recount only clears the mark of courses no update touched while it ran. Not thread-safe: the owner calls every
+ * method except {@link #begin} under its own lock.
+ */
+final class ScanEpochs {
+    private static final AtomicLong CLOCK = new AtomicLong(); // shared, so one token serves every view
+
+    private long rebuiltAt;
+    private final Map<Long, Long> recountedAt = new HashMap<>();
+    private final Map<Long, Long> touchedAt = new HashMap<>();
+
+    /** A token for a write or scan about to start; later calls return larger tokens. */
+    static long begin() { return CLOCK.incrementAndGet(); }
+
+    /** Records a full rebuild whose scan has just finished. */
+    void rebuilt() {
+        rebuiltAt = CLOCK.incrementAndGet();
+        recountedAt.clear();
+        touchedAt.clear();
+    }
+
+    /** True if the write that began at {@code token} is certainly not in any installed scan of the course. */
+    boolean applies(long token, long courseId) { return applies(token, courseId, false); }
+
+    /** As {@link #applies(long, long)}; {@code unscanned} says the row is known to be outside the last rebuild. */
+    boolean applies(long token, long courseId, boolean unscanned) {
+        touched(courseId);
+        Long recounted = recountedAt.get(courseId);
+        return (unscanned || token > rebuiltAt) && (recounted == null || token > recounted);
+    }
+
+    /** Notes a change to the course that is not applied as a delta (e.g. the course is simply marked stale). */
+    void touched(long courseId) { touchedAt.put(courseId, CLOCK.incrementAndGet()); }
+
+    /**
+     * Records a recount of the course that began at {@code token}. False if an update arrived while it ran, or it
+     * began before the last rebuild (which forgot earlier updates): the recount may or may not include them, so the
+     * owner installs it but keeps the course marked for another one.
+     */
+    boolean recounted(long token, long courseId) {
+        Long touched = touchedAt.get(courseId);
+        recountedAt.put(courseId, CLOCK.incrementAndGet());
+        return token > rebuiltAt && (touched == null || touched < token);
+    }
+
+    void forget(long courseId) {
+        recountedAt.remove(courseId);
+        touchedAt.remove(courseId);
+    }
+}
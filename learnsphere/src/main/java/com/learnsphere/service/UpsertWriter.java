@@ -0,0 +1,200 @@
+package com.learnsphere.service;
+
+import com.learnsphere.entity.Course;
+import com.learnsphere.entity.Enrollment;
+import com.learnsphere.entity.Review;
+import com.learnsphere.entity.User;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.PostInsertIdentifierGenerator;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Single-statement enrollment and review writes using the database's native upsert, so concurrent callers
+ * never race between "check" and "insert" and never trip the (user_id, course_id) unique keys.
+ * MySQL uses {@code INSERT IGNORE} / {@code ON DUPLICATE KEY UPDATE}, H2 uses {@code MERGE ... USING};
+ * other dialects fall back to an insert through {@code load()} proxies. When enrollments or reviews do not use
+ * identity columns (see {@link com.learnsphere.util.IdGeneration}), the statements take their id from the
+ * entity's generator; an upsert that updates or ignores simply leaves that id unused. Thread-safe.
+ */
+class UpsertWriter {
+    private enum Kind { MYSQL, H2, GENERIC }
+
+    // {id} becomes ", id" / ", ?" / ", v.id" when the id is generated by the application, and disappears otherwise
+    private static final String MYSQL_ENROLL =
+            "insert ignore into enrollments (user_id, course_id, enrolledAt{id}) values (?, ?, ?{?})";
+    private static final String H2_ENROLL =
+            "merge into enrollments t using (values (cast(? as bigint), cast(? as bigint), cast(? as timestamp){cast})) v(uid, cid, at{id})"
+            + " on t.user_id = v.uid and t.course_id = v.cid"
+            + " when not matched then insert (user_id, course_id, enrolledAt{id}) values (v.uid, v.cid, v.at{v.id})";
+    // the enrollment check is part of the statement: no enrollment row, nothing inserted
+    private static final String MYSQL_REVIEW =
+            "insert into reviews (user_id, course_id, rating, text, createdAt{id})"
+            + " select e.user_id, e.course_id, ?, ?, ?{?} from enrollments e where e.user_id = ? and e.course_id = ?"
+            + " on duplicate key update rating = values(rating), text = values(text)";
+    private static final String H2_REVIEW =
+            "merge into reviews t using (select e.user_id uid, e.course_id cid from enrollments e"
+            + " where e.user_id = ? and e.course_id = ?) v"
+            + " on t.user_id = v.uid and t.course_id = v.cid"
+            + " when matched then update set rating = ?, text = ?"
+            + " when not matched then insert (user_id, course_id, rating, text, createdAt{id}) values (v.uid, v.cid, ?, ?, ?{?})";
+
+    private final Kind kind;
+    private final IdentifierGenerator enrollmentIds, reviewIds; // null for identity columns
+    private final String enrollSql, reviewSql;
+
+    UpsertWriter(SessionFactory sf) {
+        SessionFactoryImplementor sfi = sf.unwrap(SessionFactoryImplementor.class);
+        Dialect d = sfi.getJdbcServices().getDialect();
+        kind = (d instanceof MySQLDialect) ? Kind.MYSQL : (d instanceof H2Dialect) ? Kind.H2 : Kind.GENERIC;
+        enrollmentIds = applicationIds(sfi, Enrollment.class);
+        reviewIds = applicationIds(sfi, Review.class);
+        enrollSql = withId(kind == Kind.MYSQL ? MYSQL_ENROLL : H2_ENROLL, enrollmentIds != null);
+        reviewSql = withId(kind == Kind.MYSQL ? MYSQL_REVIEW : H2_REVIEW, reviewIds != null);
+    }
+
+    private static IdentifierGenerator applicationIds(SessionFactoryImplementor sf, Class<?> entity) {
+        IdentifierGenerator g = sf.getMetamodel().entityPersister(entity).getIdentifierGenerator();
+        return g instanceof PostInsertIdentifierGenerator ? null : g;
+    }
+
+    private static String withId(String sql, boolean id) {
+        return sql.replace("{id}", id ? ", id" : "").replace("{?}", id ? ", ?" : "")
+                .replace("{cast}", id ? ", cast(? as bigint)" : "").replace("{v.id}", id ? ", v.id" : "");
+    }
+
+    /** The next id for a native insert, or null when the database assigns it. */
+    private static Long nextId(Session s, IdentifierGenerator ids) {
+        return ids == null ? null : (Long) ids.generate(s.unwrap(SharedSessionContractImplementor.class), null);
+    }
+
+    /** Inserts the enrollment unless it exists; true if a row was created. Runs in the caller's transaction. */
+    boolean enroll(Session s, long userId, long courseId) {
+        if (kind == Kind.GENERIC) {
+            if (exists(s, userId, courseId)) return false;
+            s.save(new Enrollment(s.load(User.class, userId), s.load(Course.class, courseId)));
+            return true;
+        }
+        Long id = nextId(s, enrollmentIds);
+        int rows = s.doReturningWork(c -> {
+            try (PreparedStatement ps = c.prepareStatement(enrollSql)) {
+                ps.setLong(1, userId);
+                ps.setLong(2, courseId);
+                ps.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+                if (id != null) ps.setLong(4, id);
+                return ps.executeUpdate();
+            } catch (SQLException e) {
+                if (isUniqueViolation(e)) return 0; // a concurrent MERGE inserted the same pair first
+                if (isConstraintViolation(e)) throw new RuntimeException("User or Course not found.");
+                throw e;
+            }
+        });
+        // INSERT IGNORE also swallows foreign key errors: tell "already enrolled" from "no such user/course"
+        if (rows == 0 && !exists(s, userId, courseId)) throw new RuntimeException("User or Course not found.");
+        return rows > 0;
+    }
+
+    /**
+     * Inserts or updates the user's review of the course, provided the user is enrolled; false when not enrolled.
+     * Runs in the caller's transaction.
+     */
+    boolean upsertReview(Session s, long userId, long courseId, int rating, String text) {
+        if (kind == Kind.GENERIC) {
+            if (!exists(s, userId, courseId)) return false;
+            int updated = s.createQuery("update Review r set r.rating = :r, r.text = :t where r.user.id = :uid and r.course.id = :cid")
+                    .setParameter("r", rating).setParameter("t", text)
+                    .setParameter("uid", userId).setParameter("cid", courseId).executeUpdate();
+            if (updated == 0) s.save(new Review(s.load(User.class, userId), s.load(Course.class, courseId), rating, text));
+            return true;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        Long id = nextId(s, reviewIds);
+        return s.doReturningWork(c -> reviewRow(c, userId, courseId, rating, text, now, id)) > 0;
+    }
+
+    /**
+     * Batched {@link #upsertReview} for the write-behind buffer: one JDBC batch, rows whose enrollment has
+     * gone are skipped. Runs in the caller's transaction.
+     */
+    void upsertReviews(Session s, List<ReviewWriteBehind.Pending> reviews) {
+        if (kind == Kind.GENERIC) {
+            for (ReviewWriteBehind.Pending p : reviews) upsertReview(s, p.userId, p.courseId, p.rating, p.text);
+            return;
+        }
+        Long[] ids = new Long[reviews.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = nextId(s, reviewIds);
+        s.doWork(c -> {
+            try (PreparedStatement ps = c.prepareStatement(reviewSql)) {
+                for (int i = 0; i < ids.length; i++) {
+                    ReviewWriteBehind.Pending p = reviews.get(i);
+                    bindReview(ps, p.userId, p.courseId, p.rating, p.text, new Timestamp(p.submittedAt), ids[i]);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            } catch (BatchUpdateException e) {
+                // H2: a concurrent MERGE won an insert; MERGE is idempotent, so redo the batch row by row
+                if (kind != Kind.H2 || !isUniqueViolation(e)) throw e;
+                for (int i = 0; i < ids.length; i++) {
+                    ReviewWriteBehind.Pending p = reviews.get(i);
+                    reviewRow(c, p.userId, p.courseId, p.rating, p.text, new Timestamp(p.submittedAt), ids[i]);
+                }
+            }
+        });
+    }
+
+    private int reviewRow(Connection c, long userId, long courseId, int rating, String text, Timestamp now, Long id)
+            throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            try (PreparedStatement ps = c.prepareStatement(reviewSql)) {
+                bindReview(ps, userId, courseId, rating, text, now, id);
+                return ps.executeUpdate();
+            } catch (SQLException e) {
+                // H2 lost an insert race to a concurrent MERGE; the retry takes the update branch
+                if (kind != Kind.H2 || attempt > 0 || !isUniqueViolation(e)) throw e;
+            }
+        }
+    }
+
+    private void bindReview(PreparedStatement ps, long userId, long courseId, int rating, String text, Timestamp now, Long id)
+            throws SQLException {
+        int k = id == null ? 0 : 1;
+        if (kind == Kind.MYSQL) {
+            ps.setInt(1, rating); ps.setString(2, text); ps.setTimestamp(3, now);
+            if (id != null) ps.setLong(4, id);
+            ps.setLong(4 + k, userId); ps.setLong(5 + k, courseId);
+        } else {
+            ps.setLong(1, userId); ps.setLong(2, courseId);
+            ps.setInt(3, rating); ps.setString(4, text);
+            ps.setInt(5, rating); ps.setString(6, text); ps.setTimestamp(7, now);
+            if (id != null) ps.setLong(8, id);
+        }
+    }
+
+    private static boolean exists(Session s, long userId, long courseId) {
+        return s.createQuery("select e.id from Enrollment e where e.user.id = :uid and e.course.id = :cid")
+                .setParameter("uid", userId).setParameter("cid", courseId)
+                .setMaxResults(1).uniqueResult() != null;
+    }
+
+    /** SQLState 23505 (H2) or MySQL error 1062: duplicate key. */
+    static boolean isUniqueViolation(SQLException e) {
+        return "23505".equals(e.getSQLState()) || e.getErrorCode() == 1062;
+    }
+
+    static boolean isConstraintViolation(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("23");
+    }
+}
@@ -0,0 +1,36 @@
+package com.learnsphere.util;
+
+import java.util.Locale;
+
+/**
+ * Runtime configuration lookup. A key such as {@code learnsphere.pool.size} is read from the system property
+ * of that name first, then from the environment variable {@code LEARNSPHERE_POOL_SIZE}.
+ */
+public final class Config {
+    private Config() {}
+
+    public static String get(String key, String def) {
+        String v = System.getProperty(key);
+        if (v == null) v = System.getenv(envName(key));
+        return (v == null || v.trim().isEmpty()) ? def : v.trim();
+    }
+
+    public static String get(String key) { return get(key, null); }
+
+    public static int getInt(String key, int def) {
+        String v = get(key);
+        return v == null ? def : Integer.parseInt(v);
+    }
+
+    public static long getLong(String key, long def) {
+        String v = get(key);
+        return v == null ? def : Long.parseLong(v);
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        String v = get(key);
+        return v == null ? def : Boolean.parseBoolean(v);
+    }
+
+    static String envName(String key) { return key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_'); }
+}
@@ -0,0 +1,50 @@
+package com.learnsphere.util;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * SessionFactory configuration profiles, selected with {@code learnsphere.profile} / {@code LEARNSPHERE_PROFILE}.
+ * Each profile layers its settings over {@code hibernate.cfg.xml}.
+ */
+public enum DbProfile {
+    /** hibernate.cfg.xml as-is: MySQL through Hibernate's built-in connection provider, SQL logging on. */
+    DEV,
+    /** Embedded in-memory H2 with a connection pool and no SQL logging; for benchmarks and load tests. */
+    BENCH,
+    /** Pooled MySQL with JDBC batching, fetch size and statement caching; SQL logging off. */
+    PROD;
+
+    public static DbProfile current() {
+        return valueOf(Config.get("learnsphere.profile", "dev").toUpperCase(Locale.ROOT));
+    }
+
+    /** Profile defaults, before user overrides. */
+    Map<String, Object> defaults() {
+        Map<String, Object> m = new HashMap<>();
+        if (this == DEV) return m;
+
+        m.put("hibernate.show_sql", "false");
+        m.put("hibernate.format_sql", "false");
+        m.put("hibernate.connection.provider_class", "org.hibernate.hikaricp.internal.HikariCPConnectionProvider");
+        m.put("hibernate.hikari.maximumPoolSize", "10");
+        m.put("hibernate.hikari.minimumIdle", "2");
+        m.put("hibernate.hikari.autoCommit", "false");
+        m.put("hibernate.connection.provider_disables_autocommit", "true");
+        m.put("hibernate.jdbc.batch_size", "50");
+        m.put("hibernate.jdbc.fetch_size", "100");
+        m.put("hibernate.order_inserts", "true");
+        m.put("hibernate.order_updates", "true");
+        m.put("hibernate.jdbc.batch_versioned_data", "true");
+        if (this == BENCH) {
+            m.put("hibernate.connection.url", "jdbc:h2:mem:learnsphere;DB_CLOSE_DELAY=-1");
+            m.put("hibernate.connection.username", "sa");
+            m.put("hibernate.connection.password", "");
+            m.put("hibernate.hbm2ddl.auto", "create");
+        } else {
+            m.put("hibernate.hikari.maximumPoolSize", "20");
+        }
+        return m;
+    }
+}
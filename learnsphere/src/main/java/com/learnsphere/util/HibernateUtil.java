@@ -2,32 +2,208 @@ package com.learnsphere.util;
 
 import com.learnsphere.entity.*;
 import org.hibernate.SessionFactory;
+import org.hibernate.boot.Metadata;
 import org.hibernate.boot.MetadataSources;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.id.factory.spi.MutableIdentifierGeneratorFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds the SessionFactory from {@code hibernate.cfg.xml} plus the active {@link DbProfile}.
+ * <p>
+ * Overrides, strongest first: {@code hibernate.*} system properties verbatim, then the {@code learnsphere.*}
+ * keys below (system property or {@code LEARNSPHERE_*} environment variable, see {@link Config}), then the
+ * profile defaults: {@code learnsphere.db.url}, {@code .db.user}, {@code .db.password}, {@code .db.dialect},
+ * {@code learnsphere.pool.size}, {@code learnsphere.jdbc.batch_size}, {@code learnsphere.jdbc.fetch_size},
+ * {@code learnsphere.sql.log}.
+ * <p>
+ * The second-level and query caches are on unless {@code learnsphere.cache.enabled=false}; region sizes and
+ * expiry live in {@code ehcache.xml}, replaceable with {@code learnsphere.cache.config} (a classpath resource or URI).
+ * With {@code learnsphere.metrics.enabled=true}, statistics are collected and SQL statements counted for {@link Metrics}.
+ * <p>
+ * The SessionFactory is built on first use, not when this class loads. {@code learnsphere.schema.mode} picks the
+ * startup schema check: {@code update} (what hibernate.cfg.xml does), {@code validate}, {@code none}, or
+ * {@code version}, which skips the check while the fingerprint stored in the database matches (see
+ * {@link SchemaVersion}). Unset, the profile and hibernate.cfg.xml decide. Each build phase is timed in {@link StartupTimer}.
+ * Primary key generation per entity follows {@link IdGeneration}.
+ * <p>
+ * {@code learnsphere.replica.urls} (comma-separated JDBC URLs) adds read-only replica SessionFactories, built on
+ * first use with the primary's settings except: {@code learnsphere.replica.user} / {@code .password} (default the
+ * primary's), pool size {@code learnsphere.replica.pool.size}, read-only connections that give up after
+ * {@code learnsphere.replica.connection_timeout_millis} (1000) rather than Hikari's 30 s, no second-level or query
+ * cache (a lagging replica must not feed stale entities into a cache the primary reads), and never any schema
+ * changes. A local stand-in for a replica is the primary's own named in-memory H2 database (e.g.
+ * {@code jdbc:h2:mem:learnsphere} under the bench profile): it sees the primary's data through a separate read-only
+ * pool, and the primary is built first so its schema exists.
+ */
 public class HibernateUtil {
-    private static final SessionFactory sessionFactory = buildSessionFactory();
+    private static final DbProfile profile = DbProfile.current();
+    private static final Map<String, Object> settings = Collections.unmodifiableMap(resolveSettings(profile));
+
+    private static final class Holder { // initialised on the first getSessionFactory()
+        static final SessionFactory sessionFactory = buildSessionFactory(settings, "hibernate", true);
+    }
+
+    private static final class Replicas { // initialised on the first getReplicaSessionFactories()
+        static final List<SessionFactory> factories = buildReplicas();
+    }
+
+    private static List<SessionFactory> buildReplicas() {
+        String urls = Config.get("learnsphere.replica.urls");
+        if (urls == null) return Collections.emptyList();
+        getSessionFactory(); // creates or checks the schema, which in-memory stand-ins share
+        List<SessionFactory> out = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            if (url.trim().isEmpty()) continue;
+            try {
+                out.add(buildSessionFactory(replicaSettings(url.trim()), "hibernate.replica" + out.size(), false));
+            } catch (RuntimeException e) {
+                System.err.println("Replica " + url.trim() + " left out: " + e.getMessage()); // reads go to the others
+            }
+        }
+        return Collections.unmodifiableList(out);
+    }
 
-    private static SessionFactory buildSessionFactory() {
+    static Map<String, Object> replicaSettings(String url) {
+        Map<String, Object> m = new HashMap<>(settings);
+        m.put("hibernate.connection.url", url);
+        override(m, "learnsphere.replica.user", "hibernate.connection.username");
+        override(m, "learnsphere.replica.password", "hibernate.connection.password");
+        override(m, "learnsphere.replica.pool.size",
+                isPooled(m) ? "hibernate.hikari.maximumPoolSize" : "hibernate.connection.pool_size");
+        if (isPooled(m)) {
+            m.put("hibernate.hikari.readOnly", "true");
+            m.put("hibernate.hikari.initializationFailTimeout", "-1"); // start even if the replica is down right now
+            m.put("hibernate.hikari.connectionTimeout", Config.get("learnsphere.replica.connection_timeout_millis", "1000"));
+        }
+        m.put("hibernate.cache.use_second_level_cache", "false");
+        m.put("hibernate.cache.use_query_cache", "false");
+        m.remove("hibernate.cache.region.factory_class");
+        m.put("hibernate.hbm2ddl.auto", "none"); // e.g. "create" would drop the tables of a stand-in's primary
+        return m;
+    }
+
+    private static SessionFactory buildSessionFactory(Map<String, Object> overrides, String phase, boolean primary) {
         try {
-            StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+            StandardServiceRegistry registry = StartupTimer.time(phase + ".registry", () -> new StandardServiceRegistryBuilder()
                     .configure() // reads hibernate.cfg.xml
-                    .build();
+                    .applySettings(overrides)
+                    .build());
+            IdGeneration.register(registry.getService(MutableIdentifierGeneratorFactory.class));
 
-            MetadataSources sources = new MetadataSources(registry)
+            // built once: the schema check and the SessionFactory share it
+            Metadata metadata = StartupTimer.time(phase + ".metadata", () -> new MetadataSources(registry)
                     .addAnnotatedClass(User.class)
                     .addAnnotatedClass(Category.class)
                     .addAnnotatedClass(Course.class)
                     .addAnnotatedClass(Enrollment.class)
-                    .addAnnotatedClass(Review.class);
+                    .addAnnotatedClass(Review.class)
+                    .buildMetadata());
 
-            return sources.buildMetadata().buildSessionFactory();
+            if (primary && "version".equals(schemaMode())) {
+                long start = System.nanoTime();
+                boolean validateOnly = "validate".equalsIgnoreCase(Config.get("learnsphere.schema.on_mismatch", "update"));
+                String outcome = SchemaVersion.ensure(metadata, registry, validateOnly);
+                StartupTimer.record("hibernate.schema(" + outcome + ")", System.nanoTime() - start);
+            }
+            return StartupTimer.time(phase + ".sessionFactory", metadata::buildSessionFactory);
         } catch (Exception ex) {
             ex.printStackTrace();
             throw new RuntimeException("SessionFactory build failed: " + ex.getMessage());
         }
     }
 
-    public static SessionFactory getSessionFactory() { return sessionFactory; }
+    static Map<String, Object> resolveSettings(DbProfile profile) {
+        Map<String, Object> m = profile.defaults();
+        override(m, "learnsphere.db.url", "hibernate.connection.url");
+        override(m, "learnsphere.db.user", "hibernate.connection.username");
+        override(m, "learnsphere.db.password", "hibernate.connection.password");
+        override(m, "learnsphere.db.dialect", "hibernate.dialect");
+        override(m, "learnsphere.pool.size",
+                isPooled(m) ? "hibernate.hikari.maximumPoolSize" : "hibernate.connection.pool_size");
+        override(m, "learnsphere.jdbc.batch_size", "hibernate.jdbc.batch_size");
+        override(m, "learnsphere.jdbc.fetch_size", "hibernate.jdbc.fetch_size");
+        override(m, "learnsphere.sql.log", "hibernate.show_sql");
+        String schema = schemaMode();
+        if (schema != null) {
+            if (!schema.matches("update|validate|none|version")) {
+                throw new IllegalArgumentException("learnsphere.schema.mode must be update, validate, none or version: " + schema);
+            }
+            // in version mode the check runs before the SessionFactory is built, not inside it
+            m.put("hibernate.hbm2ddl.auto", "version".equals(schema) ? "none" : schema);
+        }
+        if (Config.getBoolean("learnsphere.cache.enabled", true)) {
+            m.put("hibernate.cache.use_second_level_cache", "true");
+            m.put("hibernate.cache.use_query_cache", "true");
+            m.put("hibernate.cache.region.factory_class", "jcache");
+            m.put("hibernate.javax.cache.provider", "org.ehcache.jsr107.EhcacheCachingProvider");
+            m.put("hibernate.javax.cache.uri", Config.get("learnsphere.cache.config", "ehcache.xml"));
+            m.put("hibernate.javax.cache.missing_cache_strategy", "create-warn");
+            m.put("hibernate.generate_statistics", "true");
+            m.put("hibernate.session.events.log", "false"); // statistics without per-session log lines
+        } else {
+            m.put("hibernate.cache.use_second_level_cache", "false");
+            m.put("hibernate.cache.use_query_cache", "false");
+        }
+        if (Metrics.ENABLED) {
+            m.put("hibernate.generate_statistics", "true");
+            m.put("hibernate.session.events.log", "false");
+            m.put("hibernate.session_factory.statement_inspector", Metrics.StatementCounter.class.getName());
+        }
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("hibernate.")) m.put(key, System.getProperty(key));
+        }
+
+        // driver and dialect follow the URL unless set explicitly; hibernate.cfg.xml defaults to MySQL
+        String url = (String) m.get("hibernate.connection.url");
+        if (url != null && url.startsWith("jdbc:h2:")) {
+            m.putIfAbsent("hibernate.connection.driver_class", "org.h2.Driver");
+            m.putIfAbsent("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        } else if ((url == null || url.startsWith("jdbc:mysql:")) && isPooled(m)) {
+            // Connector/J client-side statement cache and batch rewriting
+            m.putIfAbsent("hibernate.hikari.dataSource.cachePrepStmts", "true");
+            m.putIfAbsent("hibernate.hikari.dataSource.prepStmtCacheSize", "250");
+            m.putIfAbsent("hibernate.hikari.dataSource.prepStmtCacheSqlLimit", "2048");
+            m.putIfAbsent("hibernate.hikari.dataSource.useServerPrepStmts", "true");
+            m.putIfAbsent("hibernate.hikari.dataSource.rewriteBatchedStatements", "true");
+        }
+        return m;
+    }
+
+    private static String schemaMode() {
+        String v = Config.get("learnsphere.schema.mode");
+        return v == null ? null : v.toLowerCase(Locale.ROOT);
+    }
+
+    private static void override(Map<String, Object> m, String configKey, String hibernateKey) {
+        String v = Config.get(configKey);
+        if (v != null) m.put(hibernateKey, v);
+    }
+
+    private static boolean isPooled(Map<String, Object> m) {
+        return m.containsKey("hibernate.connection.provider_class");
+    }
+
+    public static SessionFactory getSessionFactory() { return Holder.sessionFactory; }
+
+    /** Read-only replica SessionFactories, in {@code learnsphere.replica.urls} order; empty when none are configured. */
+    public static List<SessionFactory> getReplicaSessionFactories() { return Replicas.factories; }
+
+    public static DbProfile getProfile() { return profile; }
+
+    /** Settings applied on top of hibernate.cfg.xml for the active profile. */
+    public static Map<String, Object> getSettings() { return settings; }
+
+    /** Maximum number of JDBC connections the SessionFactory will open. */
+    public static int getPoolSize() {
+        Object v = settings.get(isPooled(settings) ? "hibernate.hikari.maximumPoolSize" : "hibernate.connection.pool_size");
+        return v == null ? 20 : Integer.parseInt(v.toString()); // 20 = built-in provider default
+    }
 }
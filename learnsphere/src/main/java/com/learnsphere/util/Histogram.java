@@ -0,0 +1,73 @@
+package com.learnsphere.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of non-negative longs (nanoseconds, counts, ...). Each power of two is split
+ * into 16 linear sub-buckets, so any recorded value is reported within about 6% over the full {@code long} range,
+ * in under 8 KB and with one atomic increment per {@link #record}.
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 4, SUB = 1 << SUB_BITS;     // 16 sub-buckets per octave
+    private static final int LINEAR = 2 * SUB;                       // values below 32 are exact
+    private static final int BUCKETS = LINEAR + (63 - (SUB_BITS + 1)) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) { /* retry */ }
+    }
+
+    static int index(long v) {
+        if (v < LINEAR) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);                 // >= SUB_BITS + 1
+        int shift = exp - SUB_BITS;
+        return LINEAR + (exp - SUB_BITS - 1) * SUB + (int) ((v >>> shift) & (SUB - 1));
+    }
+
+    /** Midpoint of the bucket, i.e. the value reported for everything recorded into it. */
+    static long valueOf(int index) {
+        if (index < LINEAR) return index;
+        int i = index - LINEAR;
+        int shift = i / SUB + 1;
+        long lower = (long) (SUB + i % SUB) << shift;
+        return lower + ((1L << shift) >>> 1);
+    }
+
+    public long count() { return count.sum(); }
+    public long sum() { return sum.sum(); }
+    public long max() { return max.get(); }
+    public double mean() { long n = count(); return n == 0 ? 0 : (double) sum() / n; }
+
+    /** Value at quantile {@code q} in [0, 1]; 0 when empty. Concurrent records may or may not be included. */
+    public long percentile(double q) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) n += (snapshot[i] = counts.get(i));
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(valueOf(i), max());
+        }
+        return max();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
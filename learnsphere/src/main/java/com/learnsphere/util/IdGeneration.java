@@ -0,0 +1,81 @@
+package com.learnsphere.util;
+
+import org.hibernate.MappingException;
+import org.hibernate.id.IdentityGenerator;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.id.factory.spi.MutableIdentifierGeneratorFactory;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Primary key generation, chosen per entity with {@code learnsphere.id.<entity>} ({@code user}, {@code category},
+ * {@code course}, {@code enrollment}, {@code review}; default {@code learnsphere.id.default}, else identity):
+ * <ul>
+ *   <li>{@code identity}: auto-increment column; Hibernate inserts on {@code save} to learn the key, so
+ *       inserts of that entity are never batched.</li>
+ *   <li>{@code table}: one row per entity in {@code id_generators}, read and advanced in its own transaction
+ *       (on a second pooled connection) once per {@code learnsphere.id.increment_size} ids.</li>
+ *   <li>{@code sequence}: a {@code <table>_seq} sequence on H2; on MySQL, which has none, a one-row table of
+ *       that name standing in for it.</li>
+ * </ul>
+ * Both non-identity strategies hand out blocks with the pooled-lo optimizer (the stored value is the next free id),
+ * so the application batches inserts and other writers can share the counter. Existing MySQL tables are switched
+ * with {@code migrations/002_pooled_id_generation.sql}. Entities name their generator with the strategy
+ * names below in {@code @GenericGenerator}; {@link #register} binds each to the configured implementation.
+ */
+public final class IdGeneration {
+    private IdGeneration() {}
+
+    public enum Strategy { IDENTITY, TABLE, SEQUENCE }
+
+    public static final String TABLE_NAME = "id_generators";
+    private static final String[] ENTITIES = { "user", "category", "course", "enrollment", "review" };
+
+    /** The configured strategy for an entity key such as {@code "enrollment"}. */
+    public static Strategy strategy(String entity) {
+        String v = Config.get("learnsphere.id." + entity, Config.get("learnsphere.id.default", "identity"));
+        try {
+            return Strategy.valueOf(v.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("learnsphere.id." + entity + " must be identity, table or sequence: " + v);
+        }
+    }
+
+    /** Ids reserved per round trip to the generator table or sequence; also the sequence increment. */
+    public static int incrementSize() { return Math.max(1, Config.getInt("learnsphere.id.increment_size", 50)); }
+
+    /** Binds the strategy names {@code learnsphere-<entity>} used by the entity mappings; call before building metadata. */
+    static void register(MutableIdentifierGeneratorFactory factory) {
+        for (String entity : ENTITIES) {
+            Strategy s = strategy(entity);
+            factory.register("learnsphere-" + entity,
+                    s == Strategy.TABLE ? PooledTable.class : s == Strategy.SEQUENCE ? PooledSequence.class : IdentityGenerator.class);
+        }
+    }
+
+    /** Pooled-lo table generator with one segment (row) per entity table. */
+    public static class PooledTable extends TableGenerator {
+        @Override public void configure(Type type, Properties params, ServiceRegistry registry) throws MappingException {
+            params.setProperty(TABLE_PARAM, TABLE_NAME);
+            params.setProperty(SEGMENT_VALUE_PARAM, params.getProperty(PersistentIdentifierGenerator.TABLE));
+            params.setProperty(INCREMENT_PARAM, Integer.toString(incrementSize()));
+            params.setProperty(OPT_PARAM, "pooled-lo");
+            super.configure(type, params, registry);
+        }
+    }
+
+    /** Pooled-lo sequence per entity table, emulated with a table where sequences are unsupported. */
+    public static class PooledSequence extends SequenceStyleGenerator {
+        @Override public void configure(Type type, Properties params, ServiceRegistry registry) throws MappingException {
+            params.setProperty(SEQUENCE_PARAM, params.getProperty(PersistentIdentifierGenerator.TABLE) + "_seq");
+            params.setProperty(INCREMENT_PARAM, Integer.toString(incrementSize()));
+            params.setProperty(OPT_PARAM, "pooled-lo");
+            super.configure(type, params, registry);
+        }
+    }
+}
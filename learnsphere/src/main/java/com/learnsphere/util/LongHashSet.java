@@ -0,0 +1,84 @@
+package com.learnsphere.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing set of {@code long}s (linear probing, backward-shift deletion) without boxing.
+ * {@link Long#MIN_VALUE} is reserved as the empty marker. Not thread-safe.
+ */
+public final class LongHashSet {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int size, mask, resizeAt;
+
+    public LongHashSet() { this(4); }
+
+    public LongHashSet(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, (int) (expected / 0.75f)) - 1) << 1;
+        allocate(cap);
+    }
+
+    private void allocate(int cap) {
+        keys = new long[cap];
+        Arrays.fill(keys, EMPTY);
+        mask = cap - 1;
+        resizeAt = (int) (cap * 0.75f);
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    public boolean contains(long key) {
+        for (int i = LongIntHashMap.slot(key, mask); ; i = (i + 1) & mask) {
+            if (keys[i] == key) return true;
+            if (keys[i] == EMPTY) return false;
+        }
+    }
+
+    /** Adds the key; false if it was already present. */
+    public boolean add(long key) {
+        if (key == EMPTY) throw new IllegalArgumentException("Reserved key");
+        int i = LongIntHashMap.slot(key, mask);
+        for (; keys[i] != EMPTY; i = (i + 1) & mask) if (keys[i] == key) return false;
+        keys[i] = key;
+        if (++size > resizeAt) rehash(keys.length << 1);
+        return true;
+    }
+
+    /** Removes the key; false if it was absent. */
+    public boolean remove(long key) {
+        for (int i = LongIntHashMap.slot(key, mask); ; i = (i + 1) & mask) {
+            if (keys[i] == key) { removeAt(i); return true; }
+            if (keys[i] == EMPTY) return false;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private void removeAt(int i) {
+        size--;
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = LongIntHashMap.slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+    }
+
+    private void rehash(int cap) {
+        long[] old = keys;
+        allocate(cap);
+        for (long k : old) {
+            if (k == EMPTY) continue;
+            int j = LongIntHashMap.slot(k, mask);
+            while (keys[j] != EMPTY) j = (j + 1) & mask;
+            keys[j] = k;
+        }
+    }
+}
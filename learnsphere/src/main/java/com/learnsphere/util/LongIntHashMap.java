@@ -0,0 +1,124 @@
+package com.learnsphere.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing {@code long -> int} hash map (linear probing, backward-shift deletion) without boxing.
+ * Absent keys read as 0 and entries whose value drops to 0 are removed, which suits counters.
+ * {@link Long#MIN_VALUE} is reserved as the empty marker and cannot be used as a key. Not thread-safe.
+ */
+public final class LongIntHashMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    @FunctionalInterface
+    public interface LongIntConsumer { void accept(long key, int value); }
+
+    private long[] keys;
+    private int[] values;
+    private int size, mask, resizeAt;
+
+    public LongIntHashMap() { this(4); }
+
+    public LongIntHashMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, (int) (expected / 0.75f)) - 1) << 1;
+        allocate(cap);
+    }
+
+    private void allocate(int cap) {
+        keys = new long[cap];
+        Arrays.fill(keys, EMPTY);
+        values = new int[cap];
+        mask = cap - 1;
+        resizeAt = (int) (cap * 0.75f);
+    }
+
+    static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    public int get(long key) {
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            if (keys[i] == key) return values[i];
+            if (keys[i] == EMPTY) return 0;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            if (keys[i] == key) return true;
+            if (keys[i] == EMPTY) return false;
+        }
+    }
+
+    /** Adds {@code delta} to the value of {@code key} and returns the new value; a result of 0 removes the key. */
+    public int addTo(long key, int delta) {
+        if (key == EMPTY) throw new IllegalArgumentException("Reserved key");
+        int i = slot(key, mask);
+        for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int v = values[i] + delta;
+                if (v == 0) removeAt(i); else values[i] = v;
+                return v;
+            }
+        }
+        if (delta == 0) return 0;
+        keys[i] = key;
+        values[i] = delta;
+        if (++size > resizeAt) rehash(keys.length << 1);
+        return delta;
+    }
+
+    public void put(long key, int value) {
+        int old = get(key);
+        addTo(key, value - old);
+    }
+
+    /** Removes the key and returns its previous value (0 if absent). */
+    public int remove(long key) {
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            if (keys[i] == key) { int v = values[i]; removeAt(i); return v; }
+            if (keys[i] == EMPTY) return 0;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    public void forEach(LongIntConsumer action) {
+        for (int i = 0; i < keys.length; i++) if (keys[i] != EMPTY) action.accept(keys[i], values[i]);
+    }
+
+    private void removeAt(int i) {
+        size--;
+        // shift back later entries of the same probe run so lookups never hit a premature hole
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        values[i] = 0;
+    }
+
+    private void rehash(int cap) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(cap);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int j = slot(oldKeys[i], mask);
+            while (keys[j] != EMPTY) j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.learnsphere.util;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * Open-addressing {@code long -> V} hash map (linear probing, backward-shift deletion) without boxing the keys.
+ * Null values are not stored. {@link Long#MIN_VALUE} is reserved as the empty marker. Not thread-safe.
+ */
+public final class LongObjectHashMap<V> {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    @FunctionalInterface
+    public interface LongObjectConsumer<V> { void accept(long key, V value); }
+
+    private long[] keys;
+    private Object[] values;
+    private int size, mask, resizeAt;
+
+    public LongObjectHashMap() { this(4); }
+
+    public LongObjectHashMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, (int) (expected / 0.75f)) - 1) << 1;
+        allocate(cap);
+    }
+
+    private void allocate(int cap) {
+        keys = new long[cap];
+        Arrays.fill(keys, EMPTY);
+        values = new Object[cap];
+        mask = cap - 1;
+        resizeAt = (int) (cap * 0.75f);
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = LongIntHashMap.slot(key, mask); ; i = (i + 1) & mask) {
+            if (keys[i] == key) return (V) values[i];
+            if (keys[i] == EMPTY) return null;
+        }
+    }
+
+    /** Stores the value and returns the previous one; a null value removes the key. */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) return remove(key);
+        if (key == EMPTY) throw new IllegalArgumentException("Reserved key");
+        int i = LongIntHashMap.slot(key, mask);
+        for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) { V old = (V) values[i]; values[i] = value; return old; }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt) rehash(keys.length << 1);
+        return null;
+    }
+
+    public V computeIfAbsent(long key, LongFunction<V> factory) {
+        V v = get(key);
+        if (v == null) { v = factory.apply(key); put(key, v); }
+        return v;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        for (int i = LongIntHashMap.slot(key, mask); ; i = (i + 1) & mask) {
+            if (keys[i] == key) { V v = (V) values[i]; removeAt(i); return v; }
+            if (keys[i] == EMPTY) return null;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(LongObjectConsumer<V> action) {
+        for (int i = 0; i < keys.length; i++) if (keys[i] != EMPTY) action.accept(keys[i], (V) values[i]);
+    }
+
+    private void removeAt(int i) {
+        size--;
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = LongIntHashMap.slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        values[i] = null;
+    }
+
+    private void rehash(int cap) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(cap);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int j = LongIntHashMap.slot(oldKeys[i], mask);
+            while (keys[j] != EMPTY) j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+}
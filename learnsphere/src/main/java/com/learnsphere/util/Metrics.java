@@ -0,0 +1,209 @@
+package com.learnsphere.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.stat.Statistics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Per-operation transaction metrics plus Hibernate {@link Statistics}, rendered in the Prometheus text format.
+ * <p>
+ * Off unless {@code learnsphere.metrics.enabled=true}; when off, {@link #ENABLED} is a constant false and the
+ * transaction wrapper skips all of it. When on, {@link #start()} optionally serves the text on
+ * {@code http://host:<learnsphere.metrics.port>/metrics} and/or writes it every
+ * {@code learnsphere.metrics.report_seconds} to {@code learnsphere.metrics.report_file} (stdout if unset).
+ * Statement counts come from a {@link StatementCounter} registered with the SessionFactory, so SQL issued
+ * through {@code Session.doWork} is not included.
+ */
+public final class Metrics {
+    private Metrics() {}
+
+    public static final boolean ENABLED = Config.getBoolean("learnsphere.metrics.enabled", false);
+
+    private static final Map<String, Op> ops = new ConcurrentHashMap<>();
+    private static final ThreadLocal<int[]> statements = ThreadLocal.withInitial(() -> new int[1]);
+    private static boolean started;
+
+    /** Counters and histograms of one operation name (one call of {@code tx(op, ...)}). */
+    public static final class Op {
+        final LongAdder transactions = new LongAdder();
+        final LongAdder rollbacks = new LongAdder();
+        final Histogram latency = new Histogram();      // ns, open to commit/rollback
+        final Histogram sessionOpen = new Histogram();  // ns, openSession + beginTransaction (connection acquire)
+        final Histogram statementsPerTx = new Histogram();
+
+        public void opened(long nanos) { sessionOpen.record(nanos); }
+
+        public void committed(long nanos, int statementCount) {
+            transactions.increment();
+            latency.record(nanos);
+            statementsPerTx.record(statementCount);
+        }
+
+        public void rolledBack(long nanos, int statementCount) {
+            rollbacks.increment();
+            committed(nanos, statementCount);
+        }
+
+        public Histogram latency() { return latency; }
+    }
+
+    public static Op op(String name) { return ops.computeIfAbsent(name, k -> new Op()); }
+
+    /** SQL statements prepared so far on the calling thread; diff two reads to count a unit of work. */
+    public static int statementCount() { return statements.get()[0]; }
+
+    /** Counts every SQL statement Hibernate prepares, per thread; registered only when metrics are enabled. */
+    public static final class StatementCounter implements StatementInspector {
+        private static final long serialVersionUID = 1L;
+
+        @Override public String inspect(String sql) {
+            statements.get()[0]++;
+            return sql;
+        }
+    }
+
+    /* ======== Export ======== */
+    /** Starts the configured HTTP endpoint and periodic reporter; idempotent, no-op when disabled. */
+    public static synchronized void start() {
+        if (!ENABLED || started) return;
+        started = true;
+        int port = Config.getInt("learnsphere.metrics.port", 0);
+        if (port > 0) startHttpEndpoint(port);
+        int every = Config.getInt("learnsphere.metrics.report_seconds", 0);
+        if (every > 0) {
+            String file = Config.get("learnsphere.metrics.report_file");
+            startReporter(every, file == null ? null : Paths.get(file));
+        }
+    }
+
+    private static void startHttpEndpoint(int port) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/metrics", ex -> {
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                ex.sendResponseHeaders(200, body.length);
+                try (OutputStream out = ex.getResponseBody()) { out.write(body); }
+            });
+            server.setExecutor(Executors.newSingleThreadExecutor(daemon("learnsphere-metrics-http")));
+            server.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot serve metrics on port " + port, e);
+        }
+    }
+
+    private static void startReporter(int seconds, Path file) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(daemon("learnsphere-metrics-report"));
+        timer.scheduleAtFixedRate(() -> {
+            String text = scrape();
+            if (file == null) { System.out.print(text); return; }
+            try { // replace atomically so a collector never reads half a snapshot
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.out.println("Metrics report failed: " + e.getMessage());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> { Thread t = new Thread(r, name); t.setDaemon(true); return t; };
+    }
+
+    /** Current values of every metric in the Prometheus text exposition format. */
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        Map<String, Op> sorted = new TreeMap<>(ops);
+        header(sb, "learnsphere_tx_total", "counter", "Transactions per operation, committed or rolled back");
+        sorted.forEach((name, op) -> line(sb, "learnsphere_tx_total", name, null, op.transactions.sum()));
+        header(sb, "learnsphere_tx_rollbacks_total", "counter", "Rolled back transactions per operation");
+        sorted.forEach((name, op) -> line(sb, "learnsphere_tx_rollbacks_total", name, null, op.rollbacks.sum()));
+        summary(sb, "learnsphere_tx_seconds", "Transaction latency, open to commit", sorted, op -> op.latency, 1e-9);
+        summary(sb, "learnsphere_session_open_seconds", "Time to open a session and begin its transaction",
+                sorted, op -> op.sessionOpen, 1e-9);
+        summary(sb, "learnsphere_tx_statements", "SQL statements per transaction", sorted, op -> op.statementsPerTx, 1);
+        hibernate(sb);
+        return sb.toString();
+    }
+
+    private static void summary(StringBuilder sb, String name, String help, Map<String, Op> ops,
+                                Function<Op, Histogram> of, double scale) {
+        header(sb, name, "summary", help);
+        ops.forEach((op, o) -> {
+            Histogram h = of.apply(o);
+            for (double q : new double[]{ 0.5, 0.9, 0.99, 0.999 }) line(sb, name, op, q, h.percentile(q) * scale);
+            line(sb, name + "_sum", op, null, h.sum() * scale);
+            line(sb, name + "_count", op, null, h.count());
+        });
+    }
+
+    private static void hibernate(StringBuilder sb) {
+        Statistics st = HibernateUtil.getSessionFactory().getStatistics();
+        if (!st.isStatisticsEnabled()) return;
+        counter(sb, "learnsphere_hibernate_sessions_opened_total", st.getSessionOpenCount());
+        counter(sb, "learnsphere_hibernate_transactions_total", st.getTransactionCount());
+        counter(sb, "learnsphere_hibernate_connects_total", st.getConnectCount());
+        counter(sb, "learnsphere_hibernate_prepared_statements_total", st.getPrepareStatementCount());
+        counter(sb, "learnsphere_hibernate_entity_loads_total", st.getEntityLoadCount());
+        counter(sb, "learnsphere_hibernate_entity_fetches_total", st.getEntityFetchCount());
+        counter(sb, "learnsphere_hibernate_entity_inserts_total", st.getEntityInsertCount());
+        counter(sb, "learnsphere_hibernate_entity_updates_total", st.getEntityUpdateCount());
+        counter(sb, "learnsphere_hibernate_entity_deletes_total", st.getEntityDeleteCount());
+        counter(sb, "learnsphere_hibernate_collection_loads_total", st.getCollectionLoadCount());
+        counter(sb, "learnsphere_hibernate_query_executions_total", st.getQueryExecutionCount());
+        gauge(sb, "learnsphere_hibernate_query_execution_max_seconds", st.getQueryExecutionMaxTime() / 1000.0);
+        counter(sb, "learnsphere_hibernate_l2_hits_total", st.getSecondLevelCacheHitCount());
+        counter(sb, "learnsphere_hibernate_l2_misses_total", st.getSecondLevelCacheMissCount());
+        gauge(sb, "learnsphere_hibernate_l2_hit_ratio",
+                ratio(st.getSecondLevelCacheHitCount(), st.getSecondLevelCacheMissCount()));
+        counter(sb, "learnsphere_hibernate_query_cache_hits_total", st.getQueryCacheHitCount());
+        counter(sb, "learnsphere_hibernate_query_cache_misses_total", st.getQueryCacheMissCount());
+        gauge(sb, "learnsphere_hibernate_query_cache_hit_ratio", ratio(st.getQueryCacheHitCount(), st.getQueryCacheMissCount()));
+    }
+
+    private static double ratio(long hits, long misses) { return hits + misses == 0 ? 0 : (double) hits / (hits + misses); }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, long v) {
+        sb.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(v).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, double v) {
+        sb.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(format(v)).append('\n');
+    }
+
+    private static void line(StringBuilder sb, String name, String op, Double quantile, double v) {
+        sb.append(name).append("{op=\"").append(op).append('"');
+        if (quantile != null) sb.append(",quantile=\"").append(quantile).append('"');
+        sb.append("} ").append(format(v)).append('\n');
+    }
+
+    private static String format(double v) {
+        return v == Math.rint(v) && Math.abs(v) < 1e15 ? Long.toString((long) v) : String.format(Locale.ROOT, "%.6g", v);
+    }
+}
@@ -0,0 +1,165 @@
+package com.learnsphere.util;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.model.relational.Namespace;
+import org.hibernate.boot.model.relational.Sequence;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.ForeignKey;
+import org.hibernate.mapping.Index;
+import org.hibernate.mapping.Table;
+import org.hibernate.mapping.UniqueKey;
+import org.hibernate.tool.hbm2ddl.SchemaUpdate;
+import org.hibernate.tool.hbm2ddl.SchemaValidator;
+import org.hibernate.tool.schema.TargetType;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Schema check for {@code learnsphere.schema.mode=version}: a SHA-256 fingerprint of the mapped tables (columns
+ * with their SQL types and nullability, keys, indexes, foreign keys) and sequences is kept in a one-row
+ * {@code schema_version} table. When it matches the mapping, startup reads one row instead of comparing the whole schema. Otherwise the
+ * schema is updated as {@code hbm2ddl.auto=update} would, or only validated with
+ * {@code learnsphere.schema.on_mismatch=validate} (for databases migrated by hand), and the new fingerprint stored.
+ */
+final class SchemaVersion {
+    private SchemaVersion() {}
+
+    static final String TABLE = "schema_version";
+
+    /** Brings the database in line with {@code metadata}; returns what was done, for the startup report. */
+    static String ensure(Metadata metadata, StandardServiceRegistry registry, boolean validateOnly) {
+        String expected = fingerprint(metadata, registry.getService(JdbcServices.class).getDialect());
+        ConnectionProvider provider = registry.getService(ConnectionProvider.class);
+        String stored = withConnection(provider, SchemaVersion::read);
+        if (expected.equals(stored)) return "current";
+
+        if (validateOnly) {
+            new SchemaValidator().validate(metadata, registry); // throws SchemaManagementException on a mismatch
+        } else {
+            SchemaUpdate update = new SchemaUpdate().setHaltOnError(true);
+            update.execute(EnumSet.of(TargetType.DATABASE), metadata, registry);
+        }
+        withConnection(provider, c -> { write(c, expected); return null; });
+        return validateOnly ? "validated" : stored == null ? "created" : "updated";
+    }
+
+    /* ======== Fingerprint ======== */
+    static String fingerprint(Metadata metadata, Dialect dialect) {
+        Mapping mapping = (Mapping) metadata; // MetadataImplementor resolves column types
+        TreeMap<String, List<String>> tables = new TreeMap<>();
+        for (Table t : metadata.collectTableMappings()) {
+            List<String> parts = new ArrayList<>();
+            for (Iterator<?> it = t.getColumnIterator(); it.hasNext(); ) {
+                Column c = (Column) it.next();
+                parts.add("column " + c.getName().toLowerCase() + ' ' + c.getSqlType(dialect, mapping).toLowerCase()
+                        + (c.isNullable() ? "" : " not null") + (c.isUnique() ? " unique" : ""));
+            }
+            if (t.getPrimaryKey() != null) parts.add("pk " + columns(t.getPrimaryKey().getColumnIterator()));
+            for (Iterator<UniqueKey> it = t.getUniqueKeyIterator(); it.hasNext(); ) {
+                parts.add("unique " + columns(it.next().getColumnIterator()));
+            }
+            for (Iterator<Index> it = t.getIndexIterator(); it.hasNext(); ) {
+                Index ix = it.next();
+                parts.add("index " + ix.getName() + ' ' + columns(ix.getColumnIterator()));
+            }
+            for (Iterator<ForeignKey> it = t.getForeignKeyIterator(); it.hasNext(); ) {
+                ForeignKey fk = it.next();
+                parts.add("fk " + columns(fk.getColumnIterator()) + " -> " + fk.getReferencedTable().getName().toLowerCase());
+            }
+            Collections.sort(parts);
+            tables.put(t.getName().toLowerCase(), parts);
+        }
+        for (Namespace ns : metadata.getDatabase().getNamespaces()) { // id generator sequences (IdGeneration)
+            for (Sequence seq : ns.getSequences()) {
+                tables.put("sequence " + seq.getName().getSequenceName().getText().toLowerCase(),
+                        Collections.singletonList("increment " + seq.getIncrementSize()));
+            }
+        }
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(tables.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : sha.digest()) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE ships SHA-256
+        }
+    }
+
+    private static String columns(Iterator<?> it) {
+        List<String> names = new ArrayList<>();
+        while (it.hasNext()) names.add(((Column) it.next()).getName().toLowerCase());
+        return String.join(",", names);
+    }
+
+    /* ======== schema_version table ======== */
+    private static String read(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("create table if not exists " + TABLE
+                    + " (id int not null primary key, fingerprint varchar(64) not null, applied_at timestamp not null)");
+            try (ResultSet rs = st.executeQuery("select fingerprint from " + TABLE + " where id = 1")) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static void write(Connection c, String fingerprint) throws SQLException {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        try (PreparedStatement up = c.prepareStatement("update " + TABLE + " set fingerprint = ?, applied_at = ? where id = 1")) {
+            up.setString(1, fingerprint);
+            up.setTimestamp(2, now);
+            if (up.executeUpdate() > 0) return;
+        }
+        try (PreparedStatement ins = c.prepareStatement("insert into " + TABLE + " (id, fingerprint, applied_at) values (1, ?, ?)")) {
+            ins.setString(1, fingerprint);
+            ins.setTimestamp(2, now);
+            ins.executeUpdate();
+        }
+    }
+
+    @FunctionalInterface private interface ConnectionWork<T> { T apply(Connection c) throws SQLException; }
+
+    private static <T> T withConnection(ConnectionProvider provider, ConnectionWork<T> work) {
+        Connection c = null;
+        try {
+            c = provider.getConnection();
+            boolean auto = c.getAutoCommit();
+            c.setAutoCommit(false);
+            try {
+                T res = work.apply(c);
+                c.commit();
+                return res;
+            } catch (SQLException | RuntimeException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(auto);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Schema version check failed: " + e.getMessage(), e);
+        } finally {
+            if (c != null) {
+                try { provider.closeConnection(c); } catch (SQLException ignored) { /* already failing or done */ }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.learnsphere.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Wall-clock breakdown of startup phases (registry, metadata, schema check, SessionFactory, warm-up of the
+ * in-memory read models, ...), in the order they ran. A phase timed twice accumulates.
+ */
+public final class StartupTimer {
+    private StartupTimer() {}
+
+    private static final Map<String, Long> phases = new LinkedHashMap<>(); // guarded by the class, nanos
+
+    public static <T> T time(String phase, Supplier<T> work) {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            record(phase, System.nanoTime() - start);
+        }
+    }
+
+    public static void time(String phase, Runnable work) {
+        time(phase, () -> { work.run(); return null; });
+    }
+
+    public static synchronized void record(String phase, long nanos) { phases.merge(phase, nanos, Long::sum); }
+
+    /** Milliseconds per phase, in the order first recorded. */
+    public static synchronized Map<String, Long> phases() {
+        Map<String, Long> ms = new LinkedHashMap<>();
+        phases.forEach((k, v) -> ms.put(k, v / 1_000_000));
+        return ms;
+    }
+
+    /** One line, e.g. {@code "Startup 412 ms: registry 35, metadata 180, schema 4, ..."}. */
+    public static synchronized String report() {
+        long total = 0;
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : phases.entrySet()) {
+            total += e.getValue();
+            sb.append(sb.length() == 0 ? "" : ", ").append(e.getKey()).append(' ').append(e.getValue() / 1_000_000);
+        }
+        return "Startup " + total / 1_000_000 + " ms: " + sb;
+    }
+}
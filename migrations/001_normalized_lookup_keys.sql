@@ -0,0 +1,18 @@
+-- LearnSphere migration 001: stored, indexed lookup keys for case-insensitive email / category lookups.
+-- Run once against a database created from learnsphere.sql, BEFORE starting a build that maps
+-- User.emailNormalized / Category.nameNormalized (hbm2ddl=update cannot backfill a NOT NULL unique column).
+--
+-- ALTER TABLE commits implicitly, so the script cannot run as one transaction. Each step can be repeated instead:
+-- after a failure (e.g. two emails that only differ in case break the unique key), fix the data and run the whole
+-- script again. IF NOT EXISTS on columns and keys needs MariaDB (the server learnsphere.sql comes from); on MySQL
+-- drop those clauses and skip the ALTERs whose column or key SHOW CREATE TABLE already lists.
+
+ALTER TABLE `users` ADD COLUMN IF NOT EXISTS `email_normalized` varchar(150) NULL;
+UPDATE `users` SET `email_normalized` = LOWER(TRIM(`email`)) WHERE `email_normalized` IS NULL;
+ALTER TABLE `users` MODIFY `email_normalized` varchar(150) NOT NULL;
+ALTER TABLE `users` ADD UNIQUE KEY IF NOT EXISTS `uk_users_email_normalized` (`email_normalized`);
+
+ALTER TABLE `categories` ADD COLUMN IF NOT EXISTS `name_normalized` varchar(100) NULL;
+UPDATE `categories` SET `name_normalized` = LOWER(TRIM(`name`)) WHERE `name_normalized` IS NULL;
+ALTER TABLE `categories` MODIFY `name_normalized` varchar(100) NOT NULL;
+ALTER TABLE `categories` ADD UNIQUE KEY IF NOT EXISTS `uk_categories_name_normalized` (`name_normalized`);
@@ -0,0 +1,41 @@
+-- LearnSphere migration 002: counters for application-generated primary keys (learnsphere.id.<entity>=table|sequence).
+-- Run once against a database created from learnsphere.sql, with the application stopped, BEFORE starting it with
+-- any entity switched away from identity. Each counter starts after the current MAX(id), so new ids never collide
+-- with auto-increment rows. The AUTO_INCREMENT attribute stays: explicit ids still insert, and switching an entity
+-- back to identity needs no further migration.
+--
+-- CREATE TABLE commits implicitly, so the script does not run as one transaction. Every step can be repeated
+-- (tables are created if missing, counters recomputed from MAX(id)), so after a failure fix the cause and run the
+-- whole script again, still with the application stopped.
+
+-- learnsphere.id.<entity>=table: one row per entity table, holding the next free id (pooled-lo)
+CREATE TABLE IF NOT EXISTS `id_generators` (
+  `sequence_name` varchar(255) NOT NULL,
+  `next_val` bigint(20) DEFAULT NULL,
+  PRIMARY KEY (`sequence_name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
+
+REPLACE INTO `id_generators` (`sequence_name`, `next_val`)
+  SELECT 'users', COALESCE(MAX(`id`), 0) + 1 FROM `users` UNION ALL
+  SELECT 'categories', COALESCE(MAX(`id`), 0) + 1 FROM `categories` UNION ALL
+  SELECT 'courses', COALESCE(MAX(`id`), 0) + 1 FROM `courses` UNION ALL
+  SELECT 'enrollments', COALESCE(MAX(`id`), 0) + 1 FROM `enrollments` UNION ALL
+  SELECT 'reviews', COALESCE(MAX(`id`), 0) + 1 FROM `reviews`;
+
+-- learnsphere.id.<entity>=sequence: MySQL has no sequences, so each is a one-row table
+CREATE TABLE IF NOT EXISTS `users_seq` (`next_val` bigint(20) DEFAULT NULL) ENGINE=InnoDB;
+CREATE TABLE IF NOT EXISTS `categories_seq` (`next_val` bigint(20) DEFAULT NULL) ENGINE=InnoDB;
+CREATE TABLE IF NOT EXISTS `courses_seq` (`next_val` bigint(20) DEFAULT NULL) ENGINE=InnoDB;
+CREATE TABLE IF NOT EXISTS `enrollments_seq` (`next_val` bigint(20) DEFAULT NULL) ENGINE=InnoDB;
+CREATE TABLE IF NOT EXISTS `reviews_seq` (`next_val` bigint(20) DEFAULT NULL) ENGINE=InnoDB;
+
+DELETE FROM `users_seq`;
+INSERT INTO `users_seq` SELECT COALESCE(MAX(`id`), 0) + 1 FROM `users`;
+DELETE FROM `categories_seq`;
+INSERT INTO `categories_seq` SELECT COALESCE(MAX(`id`), 0) + 1 FROM `categories`;
+DELETE FROM `courses_seq`;
+INSERT INTO `courses_seq` SELECT COALESCE(MAX(`id`), 0) + 1 FROM `courses`;
+DELETE FROM `enrollments_seq`;
+INSERT INTO `enrollments_seq` SELECT COALESCE(MAX(`id`), 0) + 1 FROM `enrollments`;
+DELETE FROM `reviews_seq`;
+INSERT INTO `reviews_seq` SELECT COALESCE(MAX(`id`), 0) + 1 FROM `reviews`;